@@ -18,15 +18,30 @@
 
 
 import dhoehl.degiro.Depot;
+import dhoehl.degiro.DepotSnapshot;
 import dhoehl.gui.DegiroDialog;
+import dhoehl.model.CostBasis;
 import dhoehl.utils.ExceptionUtils;
 import org.apache.commons.io.FileUtils;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 public class DgReportGenerator {
     private static final boolean DEBUG = false;
+    private static final String COST_BASIS_OPTION = "--cost-basis=";
+    private static final String COMPARE_OPTION = "--compare-cost-bases";
+    private static final String REALIZED_EVENTS_OPTION = "--realized-events=";
+    private static final String PAGES_OPTION = "--pages=";
+    private static final String SNAPSHOT_OPTION = "--snapshot=";
 
 
     public static void main(String[] args) {
@@ -40,9 +55,33 @@ public class DgReportGenerator {
                 DegiroDialog window = new DegiroDialog();
                 window.open();
             } else {
-                File transactions = new File(args[0]);
-                Depot degiro = new Depot(transactions);
-                FileUtils.writeStringToFile(new File(System.getProperty("user.dir") + "/Report.html"), degiro.toStringHtml());
+                //Options (--cost-basis=FIFO|LIFO|HIFO|AVERAGE, --compare-cost-bases, --realized-events=<csv>, --pages=<directory>,
+                //--snapshot=<file>), all other arguments are exports
+                CostBasis costBasis = CostBasis.FIFO;
+                CostBasis[] compared = new CostBasis[0];
+                File realizedEvents = null;
+                //Report split into pages in this directory instead of a single Report.html
+                File pages = null;
+                //Parsed exports, read instead of the csv files as long as these did not change
+                File snapshot = null;
+                List<File> files = new ArrayList<>();
+                for (String arg : args) {
+                    if (arg.startsWith(COST_BASIS_OPTION)) costBasis = CostBasis.valueOf(arg.substring(COST_BASIS_OPTION.length()).toUpperCase(Locale.ROOT));
+                    else if (arg.equals(COMPARE_OPTION)) compared = CostBasis.values();
+                    else if (arg.startsWith(REALIZED_EVENTS_OPTION)) realizedEvents = new File(arg.substring(REALIZED_EVENTS_OPTION.length()));
+                    else if (arg.startsWith(PAGES_OPTION)) pages = new File(arg.substring(PAGES_OPTION.length()));
+                    else if (arg.startsWith(SNAPSHOT_OPTION)) snapshot = new File(arg.substring(SNAPSHOT_OPTION.length()));
+                    else files.add(new File(arg));
+                }
+                if (files.isEmpty()) throw new IllegalArgumentException("No transactions csv given");
+                Depot degiro = readDepot(files, snapshot, costBasis, compared);
+                if (pages != null) degiro.writeHtmlPages(pages);
+                else degiro.writeHtml(new File(System.getProperty("user.dir") + "/Report.html"));
+                if (realizedEvents != null) {
+                    try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(realizedEvents), StandardCharsets.UTF_8))) {
+                        degiro.writeRealizedEvents(out, costBasis);
+                    }
+                }
 
             }
         } catch (Exception e) {
@@ -57,4 +96,20 @@ public class DgReportGenerator {
 
 
     }
+
+    private static Depot readDepot(List<File> files, File snapshot, CostBasis costBasis, CostBasis[] compared) throws IOException {
+        if (snapshot != null && DepotSnapshot.isCurrent(snapshot, files)) {
+            try {
+                return DepotSnapshot.read(snapshot, costBasis, compared);
+            } catch (IOException | RuntimeException e) {
+                //A broken snapshot is replaced by a new one
+                System.out.println("Could not read snapshot " + snapshot + ", reading the csv files instead: " + e);
+            }
+        }
+        Depot degiro = new Depot(files.get(0), costBasis, compared);
+        //Further exports (e.g. of other accounts or periods) are merged into the same depot
+        for (int i = 1; i < files.size(); i++) degiro.addTransactions(files.get(i));
+        if (snapshot != null) DepotSnapshot.write(degiro, snapshot, files);
+        return degiro;
+    }
 }
@@ -21,31 +21,215 @@ package dhoehl.csv;
 import dhoehl.model.Table;
 import dhoehl.utils.csvUtils.DegiroUtils;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class CsvReader {
+    //Smaller files are not worth the overhead of mapping and splitting
+    private static final long MAPPED_THRESHOLD = 32L * 1024 * 1024;
+    private static final long MIN_CHUNK_SIZE = 4L * 1024 * 1024;
+    //Must stay below 2GB, this is the limit of a single mapping
+    private static final long MAX_CHUNK_SIZE = 256L * 1024 * 1024;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    //States of the scan for line breaks that end a row, the same as in CsvTokenizer
+    private static final int STATE_FIELD_START = 0;
+    private static final int STATE_UNQUOTED = 1;
+    private static final int STATE_QUOTED = 2;
+    private static final int STATE_QUOTE_IN_QUOTED = 3;
 
 
     public static Table readDegiro(File csvFile) {
-        BufferedReader csvReader;
-        Table table = new Table();
-        try {
-            csvReader = new BufferedReader(new FileReader(csvFile));
-            String row;
-            while ((row = csvReader.readLine()) != null) {
-                row = DegiroUtils.alterRow(row);
-                String[] rowData = row.split(",");
-                table.addRow(rowData);
-            }
-            csvReader.close();
+        if (csvFile.length() >= MAPPED_THRESHOLD && isLineSplittable(Charset.defaultCharset()))
+            return readDegiroMapped(csvFile);
+
+        Table table = new Table(DegiroUtils.DICTIONARY_COLUMNS);
+        try (Reader csvReader = new FileReader(csvFile)) {
+            new CsvTokenizer(new DegiroHandler(table, true)).tokenize(csvReader);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        DegiroUtils.addIds(table);
         return table;
     }
 
+    /*
+    Maps the file into memory, splits it into chunks at row boundaries and tokenizes the chunks in parallel.
+    The resulting table has the same rows in the same order as readDegiro.
+     */
+    public static Table readDegiroMapped(File csvFile) {
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, csvFile.length() / (ForkJoinPool.getCommonPoolParallelism() * 4L));
+        return readDegiroMapped(csvFile, Math.min(chunkSize, MAX_CHUNK_SIZE));
+    }
+
+    //Chunks end at the first row boundary at or behind the given size
+    static Table readDegiroMapped(File csvFile, long chunkSize) {
+        Charset charset = Charset.defaultCharset();
+        try (FileChannel channel = FileChannel.open(csvFile.toPath(), StandardOpenOption.READ)) {
+            List<long[]> chunks = splitAtRows(channel, chunkSize);
+            Table table = ForkJoinPool.commonPool().invoke(new ChunkTask(channel, charset, chunks, 0, chunks.size()));
+            //Done on the merged table, ids depend on all rows before
+            DegiroUtils.addIds(table);
+            return table;
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+        }
+        return new Table(DegiroUtils.DICTIONARY_COLUMNS);
+    }
+
+    /*
+    A line break inside a quoted field does not end a row, so the whole file is scanned once with the states of the
+    tokenizer to find the line breaks that do. Only the quotes and separators matter, which are single bytes here.
+     */
+    private static List<long[]> splitAtRows(FileChannel channel, long chunkSize) throws IOException {
+        long size = channel.size();
+        List<long[]> chunks = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        int state = STATE_FIELD_START;
+        long start = 0;
+        long position = 0;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                state = nextState(state, b);
+                if (b == '\n' && state == STATE_FIELD_START && position + i >= start + chunkSize) {
+                    chunks.add(new long[]{start, position + i + 1});
+                    start = position + i + 1;
+                }
+            }
+            position += read;
+        }
+        if (start < size) chunks.add(new long[]{start, size});
+        return chunks;
+    }
+
+    private static int nextState(int state, byte b) {
+        switch (state) {
+            case STATE_FIELD_START:
+                if (b == '"') return STATE_QUOTED;
+                return b == ',' || b == '\n' || b == '\r' ? STATE_FIELD_START : STATE_UNQUOTED;
+            case STATE_QUOTED:
+                return b == '"' ? STATE_QUOTE_IN_QUOTED : STATE_QUOTED;
+            case STATE_QUOTE_IN_QUOTED:
+                //Escaped quote ("") or the end of the quoted field
+                if (b == '"') return STATE_QUOTED;
+                return b == ',' || b == '\n' || b == '\r' ? STATE_FIELD_START : STATE_UNQUOTED;
+            default:
+                //Quotes within a field are kept as they are
+                return b == ',' || b == '\n' || b == '\r' ? STATE_FIELD_START : STATE_UNQUOTED;
+        }
+    }
+
+    /*
+    Scanning the bytes is only safe if the charset encodes the line breaks, separator and quote as single bytes that
+    never are part of another character
+     */
+    private static boolean isLineSplittable(Charset charset) {
+        return Arrays.equals(",\"\r\n".getBytes(charset), new byte[]{',', '"', '\r', '\n'});
+    }
+
+    private static class ChunkTask extends RecursiveTask<Table> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final Charset charset;
+        private final List<long[]> chunks;
+        private final int from;
+        private final int to;
+
+        ChunkTask(FileChannel channel, Charset charset, List<long[]> chunks, int from, int to) {
+            this.channel = channel;
+            this.charset = charset;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Table compute() {
+            if (to - from <= 1) {
+                return from < to ? readChunk(chunks.get(from)) : new Table(DegiroUtils.DICTIONARY_COLUMNS);
+            }
+            int middle = (from + to) >>> 1;
+            ChunkTask right = new ChunkTask(channel, charset, chunks, middle, to);
+            right.fork();
+            Table left = new ChunkTask(channel, charset, chunks, from, middle).compute();
+            //Keep the original row order, left chunk comes first
+            return left.append(right.join());
+        }
+
+        private Table readChunk(long[] chunk) {
+            Table table = new Table(DegiroUtils.DICTIONARY_COLUMNS);
+            try {
+                ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1] - chunk[0]);
+                CharBuffer chars = charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                        .decode(mapped);
+                //Only the first chunk starts with the header
+                new CsvTokenizer(new DegiroHandler(table, chunk[0] == 0)).tokenize(chars);
+            } catch (CharacterCodingException e) {
+                //Cannot happen as errors are replaced
+                throw new IllegalStateException(e);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return table;
+        }
+    }
+
+    /*
+    Fills the table and keeps the headline apart
+     */
+    private static class DegiroHandler implements CsvTokenizer.FieldHandler {
+        private final Table table;
+        private List<String> header;
+
+        DegiroHandler(Table table, boolean readHeader) {
+            this.table = table;
+            if (readHeader) header = new ArrayList<>();
+        }
+
+        @Override
+        public void onField(int column, char[] buffer, int start, int end) {
+            if (header != null) {
+                header.add(new String(buffer, start, end - start));
+                return;
+            }
+            table.addCell(column, buffer, start, end);
+        }
+
+        @Override
+        public void onRowEnd(int row, int columns) {
+            if (header != null) {
+                //The headline holds no data, it is kept apart from the rows
+                table.setHeader(header.toArray(new String[0]));
+                header = null;
+                return;
+            }
+            //Rows without an id end before the id column, it is left empty for now
+            if (columns <= DegiroUtils.ID_COLUMN) table.addCell(DegiroUtils.ID_COLUMN, "");
+            table.endRow();
+        }
+    }
+
 
 }
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dhoehl.csv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/*
+Single pass RFC-4180 tokenizer. Every character is looked at exactly once, field boundaries are handed to a FieldHandler
+as ranges of a char array. Unquoted fields are passed straight out of the input buffer, only quoted fields (which need
+unescaping) and fields crossing a buffer boundary are copied into an internal scratch buffer.
+Empty lines are skipped, rows may be terminated by \n, \r\n or \r.
+ */
+public class CsvTokenizer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int STATE_FIELD_START = 0;
+    private static final int STATE_UNQUOTED = 1;
+    private static final int STATE_QUOTED = 2;
+    private static final int STATE_QUOTE_IN_QUOTED = 3;
+    //Field content lives in the scratch buffer (after a closing quote or across a buffer boundary)
+    private static final int STATE_BUFFERED = 4;
+
+    public interface FieldHandler {
+        //The range [start, end) of buffer is only valid during the call
+        void onField(int column, char[] buffer, int start, int end);
+
+        void onRowEnd(int row, int columns);
+    }
+
+    private final FieldHandler handler;
+    private char[] scratch = new char[256];
+    private int scratchLength;
+    private int state = STATE_FIELD_START;
+    private int fieldStart;
+    private int column;
+    private int row;
+
+    public CsvTokenizer(FieldHandler handler) {
+        this.handler = handler;
+    }
+
+    public void tokenize(Reader reader) throws IOException {
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            feed(buffer, 0, read);
+        }
+        finish();
+    }
+
+    public void tokenize(CharBuffer input) {
+        if (input.hasArray()) {
+            feed(input.array(), input.arrayOffset() + input.position(), input.remaining());
+        } else {
+            char[] buffer = new char[Math.min(BUFFER_SIZE, Math.max(input.remaining(), 1))];
+            while (input.hasRemaining()) {
+                int length = Math.min(buffer.length, input.remaining());
+                input.get(buffer, 0, length);
+                feed(buffer, 0, length);
+            }
+        }
+        finish();
+    }
+
+    /*
+    Rows seen so far, empty lines are not counted
+     */
+    public int getRows() {
+        return row;
+    }
+
+    private void feed(char[] buffer, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            char c = buffer[i];
+            switch (state) {
+                case STATE_FIELD_START:
+                    if (c == '"') {
+                        scratchLength = 0;
+                        state = STATE_QUOTED;
+                    } else if (c == ',') {
+                        emit(buffer, i, i);
+                    } else if (c == '\n' || c == '\r') {
+                        //A trailing separator still delimits an (empty) last field
+                        if (column > 0) emit(buffer, i, i);
+                        endRow();
+                    } else {
+                        fieldStart = i;
+                        state = STATE_UNQUOTED;
+                    }
+                    break;
+                case STATE_UNQUOTED:
+                    if (c == ',') {
+                        emit(buffer, fieldStart, i);
+                        state = STATE_FIELD_START;
+                    } else if (c == '\n' || c == '\r') {
+                        emit(buffer, fieldStart, i);
+                        endRow();
+                        state = STATE_FIELD_START;
+                    }
+                    break;
+                case STATE_QUOTED:
+                    if (c == '"') state = STATE_QUOTE_IN_QUOTED;
+                    else append(c);
+                    break;
+                case STATE_QUOTE_IN_QUOTED:
+                    if (c == '"') {
+                        //Escaped quote ("")
+                        append(c);
+                        state = STATE_QUOTED;
+                    } else {
+                        state = STATE_BUFFERED;
+                        i--;
+                    }
+                    break;
+                default:
+                    if (c == ',') {
+                        emit(scratch, 0, scratchLength);
+                        state = STATE_FIELD_START;
+                    } else if (c == '\n' || c == '\r') {
+                        emit(scratch, 0, scratchLength);
+                        endRow();
+                        state = STATE_FIELD_START;
+                    } else {
+                        //Not RFC conform (text after a closing quote), be lenient and keep it
+                        append(c);
+                    }
+                    break;
+            }
+        }
+        //The field continues in the next buffer, keep what we have so far
+        if (state == STATE_UNQUOTED) {
+            scratchLength = 0;
+            append(buffer, fieldStart, end);
+            state = STATE_BUFFERED;
+        }
+    }
+
+    private void finish() {
+        if (state == STATE_FIELD_START) {
+            if (column > 0) emit(scratch, 0, 0);
+        } else {
+            //Also covers an unterminated quoted field at the end of the input
+            emit(scratch, 0, scratchLength);
+        }
+        if (column > 0) endRow();
+        state = STATE_FIELD_START;
+    }
+
+    private void emit(char[] buffer, int start, int end) {
+        handler.onField(column++, buffer, start, end);
+    }
+
+    private void endRow() {
+        //Empty lines do not produce a row
+        if (column == 0) return;
+        handler.onRowEnd(row++, column);
+        column = 0;
+    }
+
+    private void append(char c) {
+        if (scratchLength == scratch.length) scratch = grow(scratch, scratchLength + 1);
+        scratch[scratchLength++] = c;
+    }
+
+    private void append(char[] buffer, int start, int end) {
+        int length = end - start;
+        if (scratchLength + length > scratch.length) scratch = grow(scratch, scratchLength + length);
+        System.arraycopy(buffer, start, scratch, scratchLength, length);
+        scratchLength += length;
+    }
+
+    private static char[] grow(char[] buffer, int minLength) {
+        char[] grown = new char[Math.max(buffer.length * 2, minLength)];
+        System.arraycopy(buffer, 0, grown, 0, buffer.length);
+        return grown;
+    }
+}
@@ -20,51 +20,216 @@ package dhoehl.degiro;
 
 import dhoehl.csv.CsvReader;
 import dhoehl.model.Asset;
+import dhoehl.model.CostBasis;
+import dhoehl.model.HoldingsTimeline;
 import dhoehl.model.ParsingError;
+import dhoehl.model.RangeTotals;
+import dhoehl.model.RealizedEvents;
 import dhoehl.model.Table;
 import dhoehl.model.Transaction;
+import dhoehl.model.TransactionStore;
+import dhoehl.utils.MoneySum;
 import org.joda.money.BigMoney;
 import org.joda.money.CurrencyUnit;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Depot {
-    private Set<Transaction> mTransactions = new TreeSet<>();
-    private Map<String, Asset> mAssets = new TreeMap<>();
+    //Imports with fewer new transactions are not worth handing the assets to other threads
+    private static final int PARALLEL_THRESHOLD = 10_000;
+    static final String OVERALL_SECTION = "Overall";
+    //All transactions, mOrder holds their indices in the store in order
+    private final TransactionStore mStore = new TransactionStore();
+    private int[] mOrder = new int[0];
+    private int mCount;
+    /*
+    Replaced as a whole once all assets of an import are built, the map itself is never changed.
+    The assets are not immutable: an import that only appends to an asset extends the known instance in place.
+     */
+    private Map<String, Asset> mAssets = Collections.emptyMap();
+    private final List<ParsingError> mParsingErrors = new ArrayList<>();
+    //All rows that failed, only the first ones are kept in mParsingErrors
+    private int mParsingErrorCount;
     private int mMinYear = Integer.MAX_VALUE;
     private int mMaxYear = Integer.MIN_VALUE;
     private CurrencyUnit mCurrency;
-    private TransactionParser mTransactionParser;
-
+    private DepotSummary mSummary;
+    private TransactionIndex mIndex;
+    //Per asset type, the last one is for all assets
+    private RangeTotals[] mRangeTotals;
+    private HoldingsTimeline mHoldings;
+    //Cost basis of the report first, then the ones it is compared with
+    private final CostBasis[] mCostBases;
+
+    static {
+        CurrencyUnit.registerCurrency("GBX", -1, 0, true);
+    }
 
     public Depot(File transactions) {
-        CurrencyUnit.registerCurrency("GBX", -1, 0, true);
+        this(transactions, CostBasis.FIFO);
+    }
 
-        readTransactions(transactions);
-        initAssets();
+    /*
+    Profit/loss is computed with the given cost basis. The compared ones are computed in the same pass over the
+    transactions and shown next to it in the report.
+     */
+    public Depot(File transactions, CostBasis costBasis, CostBasis... compared) {
+        this(costBasis, compared);
+        addTransactions(transactions);
     }
 
-    private void initAssets() {
-        Map<String, Asset> assets = new HashMap<>();
+    //Empty depot, filled by DepotSnapshot
+    Depot(CostBasis costBasis, CostBasis... compared) {
+        Set<CostBasis> costBases = new LinkedHashSet<>();
+        costBases.add(costBasis);
+        costBases.addAll(Arrays.asList(compared));
+        mCostBases = costBases.toArray(new CostBasis[0]);
+    }
 
-        for (Transaction t : mTransactions) {
-            String isin = t.getIsin();
-            if (assets.get(isin) == null)
-                assets.put(isin, new Asset(t.getIsin(), t.getProduct(), t.getOverall().getCurrencyUnit()));
-            assets.get(isin).addTransaction(t);
-            mMinYear = Math.min(t.getTimestamp().getYear(), mMinYear);
-            mMaxYear = Math.max(t.getTimestamp().getYear(), mMaxYear);
-            if (mCurrency == null) mCurrency = t.getOverall().getCurrencyUnit();
+    /*
+    Reads another export (e.g. the one of last week) into this depot. Rows that are already known are skipped,
+    only the assets that get new transactions are updated.
+     */
+    public void addTransactions(File transactions) {
+        Table table = CsvReader.readDegiro(transactions);
+        TransactionParser transactionParser = new TransactionParser(table);
+        mParsingErrors.addAll(transactionParser.getParsingErrors());
+        mParsingErrorCount += transactionParser.getErrorCount();
+        addTransactions(transactionParser.getParsedTransactions());
+    }
+
+    public void addTransactions(Collection<Transaction> transactions) {
+        //Transactions with the same identity are already part of the depot
+        List<Transaction> candidates = new ArrayList<>();
+        for (Transaction t : transactions) {
+            if (find(t) < 0) candidates.add(t);
+        }
+        //Stable, of equal new transactions the first one is kept
+        Collections.sort(candidates);
+
+        //Copy the new transactions into the store of the depot and group them by asset, keeping them in order
+        Map<String, List<Transaction>> added = new HashMap<>();
+        int[] indices = new int[candidates.size()];
+        int count = 0;
+        Transaction previous = null;
+        for (Transaction t : candidates) {
+            if (previous != null && previous.compareTo(t) == 0) continue;
+            previous = t;
+            Transaction copy = mStore.get(mStore.add(t));
+            indices[count++] = copy.getIndex();
+            added.computeIfAbsent(copy.getIsin(), k -> new ArrayList<>()).add(copy);
+            int year = copy.getTimestamp().getYear();
+            mMinYear = Math.min(year, mMinYear);
+            mMaxYear = Math.max(year, mMaxYear);
+            if (mCurrency == null) mCurrency = copy.getOverall().getCurrencyUnit();
+        }
+        merge(indices, count);
+        if (count > 0) {
+            mSummary = null;
+            mIndex = null;
+            mRangeTotals = null;
+            mHoldings = null;
         }
-        mAssets = assets;
+
+        //Every asset only depends on its own transactions, large imports build them concurrently
+        List<Map.Entry<String, List<Transaction>>> groups = new ArrayList<>(added.entrySet());
+        Map<String, Asset> assets = new HashMap<>(mAssets);
+        if (count >= PARALLEL_THRESHOLD && groups.size() > 1) {
+            //Largest first, so a big asset does not start last and keep a single thread busy at the end
+            groups.sort((a, b) -> Integer.compare(b.getValue().size(), a.getValue().size()));
+            List<ForkJoinTask<Asset>> tasks = new ArrayList<>(groups.size());
+            for (Map.Entry<String, List<Transaction>> group : groups) {
+                Asset known = mAssets.get(group.getKey());
+                tasks.add(ForkJoinPool.commonPool().submit(() -> buildAsset(known, group.getValue())));
+            }
+            for (int i = 0; i < groups.size(); i++) assets.put(groups.get(i).getKey(), tasks.get(i).join());
+        } else {
+            for (Map.Entry<String, List<Transaction>> group : groups) {
+                assets.put(group.getKey(), buildAsset(mAssets.get(group.getKey()), group.getValue()));
+            }
+        }
+        mAssets = Collections.unmodifiableMap(assets);
     }
 
-    private void readTransactions(File transactions) {
-        Table table = CsvReader.readDegiro(transactions);
-        mTransactionParser = new TransactionParser(table);
-        mTransactions = mTransactionParser.getParsedTransactions();
+    /*
+    Adds the new transactions (all of one isin, in order) to the known asset or to a new one.
+    New transactions after the known ones extend the known asset in place, otherwise a new asset is built from all of them.
+    Only reads the store of the depot, so it may run for several assets at once.
+     */
+    private Asset buildAsset(Asset asset, List<Transaction> transactions) {
+        Collection<Transaction> newTransactions = transactions;
+        Transaction first = transactions.get(0);
+        if (asset == null) {
+            asset = new Asset(first.getIsin(), first.getProduct(), first.getOverall().getCurrencyUnit(), mStore, mCostBases);
+        } else if (asset.getLastTransaction() != null && first.compareTo(asset.getLastTransaction()) < 0) {
+            //The new rows are not all after the known ones, buys and sells have to be matched again from the start
+            Set<Transaction> all = new TreeSet<>(asset.getTransactions());
+            all.addAll(newTransactions);
+            newTransactions = all;
+            asset = new Asset(asset.getIsin(), asset.getName(), first.getOverall().getCurrencyUnit(), mStore, mCostBases);
+        }
+        for (Transaction t : newTransactions) asset.addTransaction(t);
+        return asset;
+    }
+
+    //Position of the transaction in mOrder, or -(insertion point) - 1 if it is not part of the depot
+    private int find(Transaction t) {
+        int low = 0;
+        int high = mCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int c = mStore.compare(mOrder[middle], t.getStore(), t.getIndex());
+            if (c < 0) low = middle + 1;
+            else if (c > 0) high = middle - 1;
+            else return middle;
+        }
+        return -(low + 1);
+    }
+
+    //Merges the sorted indices of new transactions into mOrder
+    private void merge(int[] indices, int count) {
+        if (count == 0) return;
+        int[] merged = new int[mCount + count];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < mCount && j < count) {
+            merged[k++] = mStore.compare(mOrder[i], mStore, indices[j]) < 0 ? mOrder[i++] : indices[j++];
+        }
+        while (i < mCount) merged[k++] = mOrder[i++];
+        while (j < count) merged[k++] = indices[j++];
+        mOrder = merged;
+        mCount = k;
+    }
+
+    void addParsingErrors(Collection<ParsingError> errors, int count) {
+        mParsingErrors.addAll(errors);
+        mParsingErrorCount += count;
+    }
+
+    public Set<Transaction> getTransactions() {
+        return mStore.view(mOrder, mCount);
+    }
+
+    public List<ParsingError> getParsingErrors() {
+        return Collections.unmodifiableList(mParsingErrors);
+    }
+
+    //Including the errors that were not kept
+    public int getParsingErrorCount() {
+        return mParsingErrorCount;
     }
 
     public Map<String, Asset> getAssets() {
@@ -122,14 +287,43 @@ public class Depot {
     }
 
     public BigMoney getProfitLoss(Asset.Type type) {
-        BigMoney profitLoss = BigMoney.zero(mCurrency);
-        for (Map.Entry<String, Asset> entrySet : mAssets.entrySet()) {
-            Asset asset = entrySet.getValue();
-            if (asset.getType() == type && asset.getProfitLoss() != null) {
-                profitLoss = profitLoss.plus(asset.getProfitLoss());
-            }
+        return getSummary().getProfitLoss(type);
+    }
+
+    /*
+    Fees, profit/loss and trade counts over arbitrary date ranges, of all assets or of the assets of one type
+     */
+    public RangeTotals getRangeTotals() {
+        return getRangeTotals(null);
+    }
+
+    public RangeTotals getRangeTotals(Asset.Type type) {
+        if (mRangeTotals == null) mRangeTotals = new RangeTotals[Asset.Type.values().length + 1];
+        int slot = type == null ? Asset.Type.values().length : type.ordinal();
+        if (mRangeTotals[slot] == null) {
+            Collection<Asset> assets = type == null ? mAssets.values() : getAllTypeAssets(type);
+            mRangeTotals[slot] = new RangeTotals(assets, getCostBasis(), mCurrency);
         }
-        return profitLoss;
+        return mRangeTotals[slot];
+    }
+
+    /*
+    Invested capital of the whole depot per day (and the pieces of all assets), see Asset.getHoldings() for one asset
+     */
+    public HoldingsTimeline getHoldings() {
+        if (mHoldings == null) mHoldings = new HoldingsTimeline(mAssets.values(), getCostBasis(), mCurrency);
+        return mHoldings;
+    }
+
+    //Indexed query over all transactions, see TransactionQuery
+    public TransactionQuery query() {
+        return new TransactionQuery(this);
+    }
+
+    //Built on first use after the transactions changed
+    TransactionIndex getIndex() {
+        if (mIndex == null) mIndex = new TransactionIndex(mStore, mOrder, mCount, mAssets);
+        return mIndex;
     }
 
     public Asset getAsset(String isin) {
@@ -138,88 +332,178 @@ public class Depot {
 
 
     public BigMoney getProfitLoss(Asset.Type type, int year) {
-        BigMoney profitLoss = BigMoney.zero(mCurrency);
-        for (Map.Entry<String, Asset> entrySet : mAssets.entrySet()) {
-            Asset asset = entrySet.getValue();
-            if (asset.getType() == type && asset.getProfitLoss(year) != null) {
-                profitLoss = profitLoss.plus(asset.getProfitLoss(year));
-            }
-        }
-        return profitLoss;
+        return getSummary().getProfitLoss(type, year);
+    }
+
+    public CostBasis getCostBasis() {
+        return mCostBases[0];
+    }
+
+    //The cost basis of the depot and the ones it is compared with
+    public List<CostBasis> getCostBases() {
+        return Collections.unmodifiableList(Arrays.asList(mCostBases));
+    }
+
+    /*
+    Realized events of all assets (in report order) as csv, see RealizedEvents.CSV_HEADER
+     */
+    public void writeRealizedEvents(Appendable out, CostBasis costBasis) throws IOException {
+        out.append(RealizedEvents.CSV_HEADER).append('\n');
+        for (Asset asset : getSummary().getAssets()) asset.getRealizedEvents(costBasis).writeCsv(out);
+    }
+
+    //Only the events of sells in the given year
+    public void writeRealizedEvents(Appendable out, CostBasis costBasis, int year) throws IOException {
+        out.append(RealizedEvents.CSV_HEADER).append('\n');
+        for (Asset asset : getSummary().getAssets(year)) asset.getRealizedEvents(costBasis).writeCsv(out, year);
+    }
+
+    public BigMoney getProfitLoss(CostBasis costBasis, Asset.Type type) {
+        return getSummary().getProfitLoss(costBasis, type);
+    }
+
+    public BigMoney getProfitLoss(CostBasis costBasis, Asset.Type type, int year) {
+        return getSummary().getProfitLoss(costBasis, type, year);
     }
 
     public long getTradeCount(Asset.Type type, Transaction.Type transactionType) {
-        long tradeCount = 0;
-        for (Asset asset : getAssets().values()) {
-            if (asset.getType() == type) tradeCount += asset.getTradeCount(transactionType);
-        }
-        return tradeCount;
+        return getSummary().getTradeCount(type, transactionType);
     }
 
     public long getTradeCount(Asset.Type type, Transaction.Type transactionType, int year) {
-        long tradeCount = 0;
-        for (Asset asset : getAssets().values()) {
-            if (asset.getType() == type && asset.getTransactions(year) != null && asset.getTransactions(year).size() > 0)
-                tradeCount += asset.getTradeCount(transactionType, year);
-        }
-        return tradeCount;
+        return getSummary().getTradeCount(type, transactionType, year);
     }
 
 
     private BigMoney getPaidFees(Asset.Type type) {
-        BigMoney fees = BigMoney.zero(mCurrency);
-        for (Asset asset : getAssets().values()) {
-            if (asset.getType() == type)
-                fees = fees.plus(asset.getPaidFees());
-        }
-        return fees;
+        return getSummary().getPaidFees(type);
     }
 
     private BigMoney getPaidFees(Asset.Type type, int year) {
-        BigMoney fees = BigMoney.zero(mCurrency);
-        for (Asset asset : getAssets().values()) {
-            if (asset.getType() == type && asset.getTransactions(year) != null && asset.getTransactions(year).size() > 0)
-                fees = fees.plus(asset.getPaidFees());
-        }
-        return fees;
+        return getSummary().getPaidFees(type, year);
     }
 
     private BigMoney getPaidExchangeFees(Asset.Type type) {
-        BigMoney fees = BigMoney.zero(mCurrency);
-        for (Asset asset : getAssets().values()) {
-            if (asset.getType() == type)
-                fees = fees.plus(asset.getPaidExchangeFees());
-        }
-        return fees;
+        return getSummary().getPaidExchangeFees(type);
     }
 
     private BigMoney getPaidExchangeFees(Asset.Type type, int year) {
-        BigMoney fees = BigMoney.zero(mCurrency);
-        for (Asset asset : getAssets().values()) {
-            if (asset.getType() == type && asset.getTransactions(year) != null && asset.getTransactions(year).size() > 0)
-                fees = fees.plus(asset.getPaidExchangeFees(year));
-        }
-        return fees;
+        return getSummary().getPaidExchangeFees(type, year);
     }
 
     private BigMoney getOverall() {
-        BigMoney overall = BigMoney.zero(mCurrency);
-        for (Asset asset : getAssets().values()) {
-            overall = overall.plus(asset.getOverall());
+        return getSummary().getOverall();
+    }
 
+    //Built on first use after the transactions changed
+    DepotSummary getSummary() {
+        if (mSummary == null) mSummary = new DepotSummary(mAssets.values(), mMinYear, mMaxYear, mCurrency, mCostBases);
+        return mSummary;
+    }
+
+
+    //Nothing for the default, FIFO without comparisons
+    private void appendCostBases(HtmlReport htmlReport) throws IOException {
+        if (mCostBases.length == 1 && mCostBases[0] == CostBasis.FIFO) return;
+        htmlReport.appendCostBasis(getCostBasis());
+        if (mCostBases.length == 1) return;
+        for (CostBasis costBasis : mCostBases) {
+            htmlReport.appendCostBasisComparison(costBasis, getProfitLoss(costBasis, Asset.Type.STOCK), getProfitLoss(costBasis, Asset.Type.OTHER));
         }
-        return overall;
     }
 
+    private void appendCostBases(HtmlReport htmlReport, int year) throws IOException {
+        if (mCostBases.length == 1) return;
+        for (CostBasis costBasis : mCostBases) {
+            htmlReport.appendCostBasisComparison(costBasis, getProfitLoss(costBasis, Asset.Type.STOCK, year), getProfitLoss(costBasis, Asset.Type.OTHER, year));
+        }
+    }
 
     public String toStringHtml() {
-        HtmlReport htmlReport = new HtmlReport();
-        //Check if there were parsing errors
-        if (mTransactionParser.hasParsingErrors())
-            htmlReport.appendErrorHeader();
+        StringWriter out = new StringWriter();
+        try {
+            writeHtml(out);
+        } catch (IOException e) {
+            //A StringWriter does not throw
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    //UTF-8, as declared by the report
+    public void writeHtml(File file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 64 * 1024)) {
+            writeHtml(out);
+        }
+    }
+
+    /*
+    Streams the report to the writer section by section, the writer is flushed but not closed
+     */
+    public void writeHtml(Writer out) throws IOException {
+        DepotSummary summary = getSummary();
+        //Large depots render their assets in parallel, like they are built
+        HtmlReport htmlReport = new HtmlReport(out, mCount >= PARALLEL_THRESHOLD);
+        htmlReport.appendHeader(hasReportErrors(), getReportSections());
 
         //First section will be a complete overview over all years
-        htmlReport.appendSection("Overall");
+        htmlReport.appendSection(OVERALL_SECTION);
+        appendOverallSummary(htmlReport);
+        //And append assets
+        htmlReport.appendAssetNavigation(summary.getAssets());
+        for (Asset asset : summary.getAssets()) {
+            htmlReport.appendAsset(asset);
+        }
+
+        //After generate sections for each year
+        for (int i = mMaxYear; i >= mMinYear; i--) {
+            htmlReport.appendSection(String.valueOf(i));
+            appendYearSummary(htmlReport, i);
+            htmlReport.appendAssetNavigation(summary.getAssets(i), i);
+            for (Asset asset : summary.getAssets(i)) {
+                htmlReport.appendAsset(asset, i);
+            }
+
+        }
+
+        appendParsingErrors(htmlReport);
+        htmlReport.finish();
+    }
+
+    /*
+    Writes the report as pages into the directory (see HtmlPages): an index, a page per year and one per asset.
+    Pages whose content did not change since the last run into the same directory are not written again.
+     */
+    public void writeHtmlPages(File directory) throws IOException {
+        new HtmlPages(this, directory, mCount >= PARALLEL_THRESHOLD).write();
+    }
+
+    //Overall, then the years from the latest one
+    List<String> getReportSections() {
+        List<String> sections = new ArrayList<>();
+        sections.add(OVERALL_SECTION);
+        for (int i = mMaxYear; i >= mMinYear; i--) sections.add(String.valueOf(i));
+        return sections;
+    }
+
+    int getMinYear() {
+        return mMinYear;
+    }
+
+    int getMaxYear() {
+        return mMaxYear;
+    }
+
+    //Failures of assets are shown in the year sections, the note in front has to know about them
+    boolean hasReportErrors() {
+        boolean hasErrors = mParsingErrorCount > 0;
+        for (int i = mMaxYear; i >= mMinYear && !hasErrors; i--) {
+            for (Asset asset : getSummary().getAssets(i)) hasErrors |= asset.hasErrors();
+        }
+        return hasErrors;
+    }
+
+    void appendOverallSummary(HtmlReport htmlReport) throws IOException {
         htmlReport.appendSectionSummary(
                 getTradeCount(Asset.Type.STOCK, Transaction.Type.SELL),
                 getTradeCount(Asset.Type.OTHER, Transaction.Type.SELL),
@@ -233,42 +517,33 @@ public class Depot {
                 getPaidExchangeFees(Asset.Type.OTHER),
                 getOverall()
         );
-        //And append assets
-        for (Asset asset : new TreeSet<>(mAssets.values())) {
-            htmlReport.appendAsset(asset);
-        }
-
-        //After generate sections for each year
-        for (int i = mMaxYear; i >= mMinYear; i--) {
-            htmlReport.appendSection(String.valueOf(i));
-            htmlReport.appendSectionSummary(
-                    getTradeCount(Asset.Type.STOCK, Transaction.Type.SELL, i),
-                    getTradeCount(Asset.Type.OTHER, Transaction.Type.SELL, i),
-                    getTradeCount(Asset.Type.STOCK, Transaction.Type.BUY, i),
-                    getTradeCount(Asset.Type.OTHER, Transaction.Type.BUY, i),
-                    getProfitLoss(Asset.Type.STOCK, i),
-                    getProfitLoss(Asset.Type.OTHER, i),
-                    getPaidFees(Asset.Type.STOCK, i),
-                    getPaidFees(Asset.Type.OTHER, i),
-                    getPaidExchangeFees(Asset.Type.STOCK, i),
-                    getPaidExchangeFees(Asset.Type.OTHER, i),
-                    BigMoney.zero(mCurrency)
-            );
-            for (Asset asset : new TreeSet<>(mAssets.values())) {
-                if (asset.getTransactions(i) != null && asset.getTransactions(i).size() > 0) {
-                    htmlReport.appendAsset(asset, i);
-                }
-            }
+        appendCostBases(htmlReport);
+    }
 
-        }
+    void appendYearSummary(HtmlReport htmlReport, int year) throws IOException {
+        htmlReport.appendSectionSummary(
+                getTradeCount(Asset.Type.STOCK, Transaction.Type.SELL, year),
+                getTradeCount(Asset.Type.OTHER, Transaction.Type.SELL, year),
+                getTradeCount(Asset.Type.STOCK, Transaction.Type.BUY, year),
+                getTradeCount(Asset.Type.OTHER, Transaction.Type.BUY, year),
+                getProfitLoss(Asset.Type.STOCK, year),
+                getProfitLoss(Asset.Type.OTHER, year),
+                getPaidFees(Asset.Type.STOCK, year),
+                getPaidFees(Asset.Type.OTHER, year),
+                getPaidExchangeFees(Asset.Type.STOCK, year),
+                getPaidExchangeFees(Asset.Type.OTHER, year),
+                BigMoney.zero(mCurrency)
+        );
+        appendCostBases(htmlReport, year);
+    }
 
+    void appendParsingErrors(HtmlReport htmlReport) {
         //If there were errors append them now
-        if (mTransactionParser.hasParsingErrors())
-            for (ParsingError error : mTransactionParser.getParsingErrors())
+        if (!mParsingErrors.isEmpty())
+            for (ParsingError error : mParsingErrors)
                 htmlReport.appendError(error.getErrorMessage());
-
-
-        return htmlReport.toString();
+        if (mParsingErrorCount > mParsingErrors.size())
+            htmlReport.appendError("... and " + (mParsingErrorCount - mParsingErrors.size()) + " more rows that could not be parsed");
     }
 
 
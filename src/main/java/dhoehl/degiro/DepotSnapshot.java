@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dhoehl.degiro;
+
+import dhoehl.model.CostBasis;
+import dhoehl.model.ParsingError;
+import dhoehl.model.Transaction;
+import dhoehl.model.TransactionStore;
+import dhoehl.utils.Fingerprint;
+import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Binary snapshot of a parsed depot, so a report can be generated again without reading and parsing the csv.
+
+Layout (big endian):
+  int magic, int version, long fingerprint of the csv files it was made of (since version 2)
+  int string count, per string: int byte length, UTF-8 bytes
+  int transaction count, int record size, fixed size records (see writeTransaction)
+  int error count, per error: int row, int column, int reason (ordinal), int field text, int row text, int message,
+    int stack trace (string references, -1 for null). Message and stack trace are only stored for errors that cannot
+    build them from the other fields. Before version 3 an error was only its message and stack trace.
+  int count of all errors (including those that were not kept, missing in older snapshots)
+
+All texts (ids, names, currencies, errors) are stored once in the string dictionary and referenced by their index.
+The assets are not stored, they are rebuilt from the transactions when the snapshot is read. This keeps the snapshot
+independent of the cost basis, a report with another cost basis can use the same snapshot.
+ */
+public class DepotSnapshot {
+    private static final int MAGIC = 0x44475253; //DGRS
+    private static final int VERSION = 3;
+    private static final int NULL = -1;
+    //Marks a decimal that does not fit into a long, the unscaled value then references its string representation
+    private static final int BIG_DECIMAL = Integer.MIN_VALUE;
+    private static final int DECIMAL_SIZE = 8 + 4;
+    private static final int MONEY_SIZE = 4 + DECIMAL_SIZE;
+    private static final int RECORD_SIZE = 4 * 4 + 8 + 2 * DECIMAL_SIZE + 5 * MONEY_SIZE;
+
+    public static void write(Depot depot, File file) throws IOException {
+        write(depot, file, Collections.emptyList());
+    }
+
+    /*
+    The sources are the csv files the depot was read from, see isCurrent.
+    The snapshot is written next to the file and replaces it once complete, so a failed run does not leave half a snapshot.
+     */
+    public static void write(Depot depot, File file, List<File> sources) throws IOException {
+        Dictionary dictionary = new Dictionary();
+        //The dictionary has to be complete before the records are written
+        for (Transaction t : depot.getTransactions()) {
+            dictionary.add(t.getId());
+            dictionary.add(t.getProduct());
+            dictionary.add(t.getIsin());
+            dictionary.add(t.getExchange());
+            dictionary.add(t.getQuantity());
+            dictionary.add(t.getPrice());
+            dictionary.add(t.getAmountLocal());
+            dictionary.add(t.getAmount());
+            dictionary.add(t.getExchangeRate());
+            dictionary.add(t.getFee());
+            dictionary.add(t.getOverall());
+        }
+        for (ParsingError error : depot.getParsingErrors()) {
+            dictionary.add(error.getFieldText());
+            dictionary.add(error.getRowText());
+            //Messages that are built from the fields are not rendered
+            if (error.hasOwnText()) {
+                dictionary.add(error.getErrorMessage());
+                dictionary.add(error.getStackTrace());
+            }
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint(sources));
+
+            out.writeInt(dictionary.strings.size());
+            for (String s : dictionary.strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(depot.getTransactions().size());
+            out.writeInt(RECORD_SIZE);
+            for (Transaction t : depot.getTransactions()) {
+                writeTransaction(out, dictionary, t);
+            }
+
+            out.writeInt(depot.getParsingErrors().size());
+            for (ParsingError error : depot.getParsingErrors()) {
+                out.writeInt(error.getRow());
+                out.writeInt(error.getColumn());
+                out.writeInt(error.getReason().ordinal());
+                out.writeInt(dictionary.get(error.getFieldText()));
+                out.writeInt(dictionary.get(error.getRowText()));
+                out.writeInt(error.hasOwnText() ? dictionary.get(error.getErrorMessage()) : NULL);
+                out.writeInt(error.hasOwnText() ? dictionary.get(error.getStackTrace()) : NULL);
+            }
+            out.writeInt(depot.getParsingErrorCount());
+        }
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /*
+    Whether the snapshot can be read instead of the csv files: it is newer than all of them and was made of the same
+    files (path, size and modification time) in the same order.
+     */
+    public static boolean isCurrent(File file, List<File> sources) {
+        if (!file.isFile()) return false;
+        for (File source : sources) {
+            if (!source.isFile() || source.lastModified() > file.lastModified()) return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return false;
+            return in.readLong() == fingerprint(sources);
+        } catch (IOException e) {
+            //Too short or not readable, the csv files are read instead
+            return false;
+        }
+    }
+
+    public static Depot read(File file) throws IOException {
+        return read(file, CostBasis.FIFO);
+    }
+
+    //The cost basis is not part of the snapshot, the assets are rebuilt with the given ones
+    public static Depot read(File file, CostBasis costBasis, CostBasis... compared) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Snapshot too large: " + file);
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (in.remaining() < 8 || in.getInt() != MAGIC) throw new IOException("Not a depot snapshot: " + file);
+            int version = in.getInt();
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported snapshot version " + version + ": " + file);
+            //The sources only matter to isCurrent
+            if (version >= 2) in.getLong();
+
+            String[] strings = new String[in.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            //Currencies are looked up once per distinct code
+            CurrencyUnit[] currencies = new CurrencyUnit[strings.length];
+
+            int count = in.getInt();
+            int recordSize = in.getInt();
+            TransactionStore store = new TransactionStore(count);
+            List<Transaction> transactions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int start = in.position();
+                transactions.add(store.get(readTransaction(in, strings, currencies, store)));
+                //Later versions may append fields to a record
+                in.position(start + recordSize);
+            }
+
+            int errorCount = in.getInt();
+            List<ParsingError> errors = new ArrayList<>(errorCount);
+            ParsingError.Reason[] reasons = ParsingError.Reason.values();
+            for (int i = 0; i < errorCount; i++) {
+                if (version < 3) {
+                    String message = string(strings, in.getInt());
+                    String stackTrace = string(strings, in.getInt());
+                    errors.add(new ParsingError(message, stackTrace));
+                    continue;
+                }
+                int row = in.getInt();
+                int column = in.getInt();
+                int reason = in.getInt();
+                if (reason < 0 || reason >= reasons.length) throw new IOException("Unknown parsing error reason " + reason + ": " + file);
+                String fieldText = string(strings, in.getInt());
+                String rowText = string(strings, in.getInt());
+                String message = string(strings, in.getInt());
+                String stackTrace = string(strings, in.getInt());
+                errors.add(new ParsingError(row, column, reasons[reason], fieldText, rowText, message, stackTrace));
+            }
+            int allErrors = in.remaining() >= 4 ? in.getInt() : errorCount;
+
+            Depot depot = new Depot(costBasis, compared);
+            depot.addParsingErrors(errors, allErrors);
+            depot.addTransactions(transactions);
+            return depot;
+        }
+    }
+
+    /*
+    id, product, isin, exchange (int references), timestamp (long, seconds since epoch), quantity (decimal),
+    price, amount local, amount (money), exchange rate (decimal), fee, overall (money).
+    A decimal is the unscaled value (long) and the scale (int), money is the currency (int reference) and a decimal.
+     */
+    private static void writeTransaction(DataOutputStream out, Dictionary dictionary, Transaction t) throws IOException {
+        out.writeInt(dictionary.get(t.getId()));
+        out.writeInt(dictionary.get(t.getProduct()));
+        out.writeInt(dictionary.get(t.getIsin()));
+        out.writeInt(dictionary.get(t.getExchange()));
+        out.writeLong(t.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+        writeDecimal(out, dictionary, t.getQuantity());
+        writeMoney(out, dictionary, t.getPrice());
+        writeMoney(out, dictionary, t.getAmountLocal());
+        writeMoney(out, dictionary, t.getAmount());
+        writeDecimal(out, dictionary, t.getExchangeRate());
+        writeMoney(out, dictionary, t.getFee());
+        writeMoney(out, dictionary, t.getOverall());
+    }
+
+    private static int readTransaction(ByteBuffer in, String[] strings, CurrencyUnit[] currencies, TransactionStore store) {
+        String id = string(strings, in.getInt());
+        String product = string(strings, in.getInt());
+        String isin = string(strings, in.getInt());
+        String exchange = string(strings, in.getInt());
+        LocalDateTime timestamp = LocalDateTime.ofEpochSecond(in.getLong(), 0, ZoneOffset.UTC);
+        BigDecimal quantity = readDecimal(in, strings);
+        BigMoney price = readMoney(in, strings, currencies);
+        BigMoney amountLocal = readMoney(in, strings, currencies);
+        BigMoney amount = readMoney(in, strings, currencies);
+        BigDecimal exchangeRate = readDecimal(in, strings);
+        BigMoney fee = readMoney(in, strings, currencies);
+        BigMoney overall = readMoney(in, strings, currencies);
+        return store.add(id, timestamp, product, isin, exchange, quantity, price, amount, amountLocal, exchangeRate, fee, overall);
+    }
+
+    private static void writeDecimal(DataOutputStream out, Dictionary dictionary, BigDecimal value) throws IOException {
+        if (value == null) {
+            out.writeLong(NULL);
+            out.writeInt(BIG_DECIMAL);
+        } else if (value.unscaledValue().bitLength() < 64) {
+            out.writeLong(value.unscaledValue().longValue());
+            out.writeInt(value.scale());
+        } else {
+            out.writeLong(dictionary.get(value.toString()));
+            out.writeInt(BIG_DECIMAL);
+        }
+    }
+
+    private static BigDecimal readDecimal(ByteBuffer in, String[] strings) {
+        long unscaled = in.getLong();
+        int scale = in.getInt();
+        if (scale != BIG_DECIMAL) return BigDecimal.valueOf(unscaled, scale);
+        return unscaled == NULL ? null : new BigDecimal(strings[(int) unscaled]);
+    }
+
+    private static void writeMoney(DataOutputStream out, Dictionary dictionary, BigMoney value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL);
+            writeDecimal(out, dictionary, null);
+        } else {
+            out.writeInt(dictionary.get(value.getCurrencyUnit().getCode()));
+            writeDecimal(out, dictionary, value.getAmount());
+        }
+    }
+
+    private static BigMoney readMoney(ByteBuffer in, String[] strings, CurrencyUnit[] currencies) {
+        int currency = in.getInt();
+        BigDecimal amount = readDecimal(in, strings);
+        if (currency == NULL) return null;
+        if (currencies[currency] == null) currencies[currency] = CurrencyUnit.of(strings[currency]);
+        return BigMoney.of(currencies[currency], amount);
+    }
+
+    private static long fingerprint(List<File> sources) {
+        Fingerprint fingerprint = new Fingerprint();
+        for (File source : sources) {
+            fingerprint.add(source.getAbsolutePath()).add(source.length()).add(source.lastModified());
+        }
+        return fingerprint.get();
+    }
+
+    private static String string(String[] strings, int reference) {
+        return reference == NULL ? null : strings[reference];
+    }
+
+    private static class Dictionary {
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        void add(String s) {
+            if (s != null && !indices.containsKey(s)) {
+                indices.put(s, strings.size());
+                strings.add(s);
+            }
+        }
+
+        void add(BigMoney money) {
+            if (money != null) {
+                add(money.getCurrencyUnit().getCode());
+                add(money.getAmount());
+            }
+        }
+
+        void add(BigDecimal value) {
+            if (value != null && value.unscaledValue().bitLength() >= 64) add(value.toString());
+        }
+
+        int get(String s) {
+            return s == null ? NULL : indices.get(s);
+        }
+    }
+}
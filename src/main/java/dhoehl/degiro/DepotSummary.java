@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dhoehl.degiro;
+
+import dhoehl.model.Asset;
+import dhoehl.model.CostBasis;
+import dhoehl.model.Transaction;
+import dhoehl.utils.MoneySum;
+import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/*
+Aggregation cube of a depot: asset type x year x metric, plus the assets of every year in report order.
+The assets already hold their values per year (their mappers are filled while the transactions are added), so the cube
+is built in one pass over the assets and every summary of the report is a lookup.
+ */
+class DepotSummary {
+    //Year index of the totals over all years
+    private static final int ALL_YEARS = 0;
+
+    private final int minYear;
+    private final int years;
+    //[asset type][year index][transaction type]
+    private final long[][][] tradeCounts;
+    //[cost basis][asset type][year index], null for cost bases that are not computed
+    private final MoneySum[][][] profitLoss;
+    private final CostBasis costBasis;
+    private final MoneySum[][] fees;
+    private final MoneySum[][] exchangeFees;
+    private final MoneySum overall;
+    private final List<Asset> assets;
+    //[year index], assets with transactions in that year
+    private final List<List<Asset>> assetsByYear = new ArrayList<>();
+
+    //The first cost basis is the one of the depot
+    DepotSummary(Collection<Asset> depotAssets, int minYear, int maxYear, CurrencyUnit currency, CostBasis... costBases) {
+        this.minYear = minYear;
+        this.costBasis = costBases[0];
+        this.years = maxYear >= minYear ? maxYear - minYear + 1 : 0;
+        int types = Asset.Type.values().length;
+        tradeCounts = new long[types][years + 1][Transaction.Type.values().length];
+        profitLoss = new MoneySum[CostBasis.values().length][][];
+        for (CostBasis c : costBases) profitLoss[c.ordinal()] = sums(types, years + 1, currency);
+        fees = sums(types, years + 1, currency);
+        exchangeFees = sums(types, years + 1, currency);
+        overall = new MoneySum(currency);
+
+        assets = new ArrayList<>(depotAssets);
+        Collections.sort(assets);
+        for (int year = 0; year <= years; year++) assetsByYear.add(new ArrayList<>());
+
+        for (Asset asset : assets) {
+            int type = asset.getType().ordinal();
+            overall.add(asset.getOverall());
+            for (int year = 1; year <= years; year++) {
+                int y = minYear + year - 1;
+                //Profits and losses belong to the year of the sell, which is a transaction of the depot as well
+                for (CostBasis c : costBases) add(profitLoss[c.ordinal()][type], year, asset.getProfitLoss(c, y));
+                if (!asset.hasTransactions(y)) continue;
+                assetsByYear.get(year).add(asset);
+                for (Transaction.Type transactionType : Transaction.Type.values()) {
+                    long count = asset.getTradeCount(transactionType, y);
+                    tradeCounts[type][year][transactionType.ordinal()] += count;
+                    tradeCounts[type][ALL_YEARS][transactionType.ordinal()] += count;
+                }
+                add(fees[type], year, asset.getPaidFees(y));
+                add(exchangeFees[type], year, asset.getPaidExchangeFees(y));
+            }
+        }
+    }
+
+    private static MoneySum[][] sums(int types, int years, CurrencyUnit currency) {
+        MoneySum[][] sums = new MoneySum[types][years];
+        for (MoneySum[] type : sums) {
+            for (int year = 0; year < years; year++) type[year] = new MoneySum(currency);
+        }
+        return sums;
+    }
+
+    private static void add(MoneySum[] sums, int year, BigMoney value) {
+        sums[year].add(value);
+        sums[ALL_YEARS].add(value);
+    }
+
+    long getTradeCount(Asset.Type type, Transaction.Type transactionType) {
+        return tradeCounts[type.ordinal()][ALL_YEARS][transactionType.ordinal()];
+    }
+
+    long getTradeCount(Asset.Type type, Transaction.Type transactionType, int year) {
+        int index = index(year);
+        return index < 0 ? 0 : tradeCounts[type.ordinal()][index][transactionType.ordinal()];
+    }
+
+    BigMoney getProfitLoss(Asset.Type type) {
+        return getProfitLoss(costBasis, type);
+    }
+
+    BigMoney getProfitLoss(Asset.Type type, int year) {
+        return getProfitLoss(costBasis, type, year);
+    }
+
+    BigMoney getProfitLoss(CostBasis costBasis, Asset.Type type) {
+        return getProfitLoss(costBasis)[type.ordinal()][ALL_YEARS].toBigMoney();
+    }
+
+    BigMoney getProfitLoss(CostBasis costBasis, Asset.Type type, int year) {
+        return get(getProfitLoss(costBasis), type, year);
+    }
+
+    private MoneySum[][] getProfitLoss(CostBasis costBasis) {
+        MoneySum[][] sums = profitLoss[costBasis.ordinal()];
+        if (sums == null) throw new IllegalArgumentException("Profit/loss is not computed for cost basis " + costBasis);
+        return sums;
+    }
+
+    BigMoney getPaidFees(Asset.Type type) {
+        return fees[type.ordinal()][ALL_YEARS].toBigMoney();
+    }
+
+    BigMoney getPaidFees(Asset.Type type, int year) {
+        return get(fees, type, year);
+    }
+
+    BigMoney getPaidExchangeFees(Asset.Type type) {
+        return exchangeFees[type.ordinal()][ALL_YEARS].toBigMoney();
+    }
+
+    BigMoney getPaidExchangeFees(Asset.Type type, int year) {
+        return get(exchangeFees, type, year);
+    }
+
+    BigMoney getOverall() {
+        return overall.toBigMoney();
+    }
+
+    //All assets in report order
+    List<Asset> getAssets() {
+        return Collections.unmodifiableList(assets);
+    }
+
+    //Assets with transactions in the year, in report order
+    List<Asset> getAssets(int year) {
+        int index = index(year);
+        return index < 0 ? Collections.<Asset>emptyList() : Collections.unmodifiableList(assetsByYear.get(index));
+    }
+
+    private BigMoney get(MoneySum[][] sums, Asset.Type type, int year) {
+        int index = index(year);
+        return index < 0 ? new MoneySum(overall.getCurrency()).toBigMoney() : sums[type.ordinal()][index].toBigMoney();
+    }
+
+    //Index of the year in the cube, -1 if there are no transactions in it
+    private int index(int year) {
+        return year >= minYear && year - minYear < years ? year - minYear + 1 : -1;
+    }
+}
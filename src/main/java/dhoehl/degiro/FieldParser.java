@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dhoehl.degiro;
+
+import dhoehl.model.ParsingError;
+import dhoehl.model.Table;
+import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/*
+Reads and validates the values of a degiro table without building temporary strings and without throwing.
+Invalid values are returned as null, the caller decides what reason to report.
+Dates, times and currencies are dictionary encoded, so they are parsed once per distinct value. Numbers are read straight
+from the characters of their cell.
+Accepted layouts are those of the former formatters: dates dd-MM-yyyy and times HH:mm (resolved like the SMART resolver
+does, 31-02 becomes the last day of february and 24:00 the start of the next day), numbers as accepted by BigDecimal and
+money as accepted by BigMoney.parse.
+ */
+class FieldParser {
+    //Unscaled values with up to 18 digits always fit into a long
+    private static final int MAX_LONG_DIGITS = 18;
+    //Keeps the exponent within an int
+    private static final int MAX_EXPONENT_DIGITS = 9;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int INVALID = -1;
+
+    private final Table table;
+    //Per dictionary code, null (or INVALID) if the value is not valid. Null arrays if the column is not dictionary encoded
+    private final LocalDate[] dates;
+    private final int[] times;
+    private final CurrencyUnit[][] currencies;
+
+    FieldParser(Table table, int dateColumn, int timeColumn, int... currencyColumns) {
+        this.table = table;
+        //Filled up front, so the parser can be shared by several threads
+        dates = isDictionary(dateColumn) ? new LocalDate[entryCount(dateColumn)] : null;
+        if (dates != null) for (int i = 0; i < dates.length; i++) dates[i] = parseDate(entry(dateColumn, i));
+        times = isDictionary(timeColumn) ? new int[entryCount(timeColumn)] : null;
+        if (times != null) for (int i = 0; i < times.length; i++) times[i] = parseTime(entry(timeColumn, i));
+        currencies = new CurrencyUnit[table.getColumns()][];
+        for (int column : currencyColumns) {
+            if (!isDictionary(column)) continue;
+            currencies[column] = new CurrencyUnit[entryCount(column)];
+            for (int i = 0; i < currencies[column].length; i++) currencies[column][i] = parseCurrency(entry(column, i));
+        }
+    }
+
+    //Null if the cells do not hold a valid date and time
+    LocalDateTime parseTimestamp(int row, int dateColumn, int timeColumn) {
+        LocalDate date = dates != null ? dates[code(dateColumn, row)] : parseDate(table.getCell(row, dateColumn));
+        int time = times != null ? times[code(timeColumn, row)] : parseTime(table.getCell(row, timeColumn));
+        if (date == null || time == INVALID) return null;
+        if (time == MINUTES_PER_DAY) return LocalDateTime.of(date.plusDays(1), LocalTime.MIDNIGHT);
+        return LocalDateTime.of(date, LocalTime.of(time / 60, time % 60));
+    }
+
+    String getString(int row, int column) {
+        return table.getCell(row, column);
+    }
+
+    boolean isEmpty(int row, int column) {
+        Table.Column c = table.getColumn(column);
+        if (c instanceof Table.RawColumn) return ((Table.RawColumn) c).isEmpty(row);
+        return c.get(row).isEmpty();
+    }
+
+    //Null if the cell is empty or not a valid number
+    BigDecimal parseDecimal(int row, int column) {
+        Table.Column c = table.getColumn(column);
+        if (c instanceof Table.RawColumn) {
+            Table.RawColumn raw = (Table.RawColumn) c;
+            return parseDecimal(raw.getChars(), raw.getStart(row), raw.getEnd(row));
+        }
+        char[] chars = c.get(row).toCharArray();
+        return parseDecimal(chars, 0, chars.length);
+    }
+
+    //Currency in the given column, amount in the next one. Null if both are empty or the money is not valid
+    BigMoney parseMoney(int row, int currencyColumn) {
+        CurrencyUnit currency = getCurrency(row, currencyColumn);
+        if (currency == null) return null;
+        Table.Column c = table.getColumn(currencyColumn + 1);
+        BigDecimal amount;
+        if (c instanceof Table.RawColumn) {
+            Table.RawColumn raw = (Table.RawColumn) c;
+            amount = parseAmount(raw.getChars(), raw.getStart(row), raw.getEnd(row));
+        } else {
+            char[] chars = c.get(row).toCharArray();
+            amount = parseAmount(chars, 0, chars.length);
+        }
+        return amount == null ? null : BigMoney.of(currency, amount);
+    }
+
+    boolean isEmptyMoney(int row, int currencyColumn) {
+        return isEmpty(row, currencyColumn) && isEmpty(row, currencyColumn + 1);
+    }
+
+    //Why parseMoney returned null for money that is not empty
+    ParsingError.Reason getMoneyError(int row, int currencyColumn) {
+        return getCurrency(row, currencyColumn) == null ? ParsingError.Reason.UNKNOWN_CURRENCY : ParsingError.Reason.INVALID_MONEY;
+    }
+
+    private CurrencyUnit getCurrency(int row, int currencyColumn) {
+        CurrencyUnit[] units = currencies[currencyColumn];
+        return units != null ? units[code(currencyColumn, row)] : parseCurrency(table.getCell(row, currencyColumn));
+    }
+
+    /*
+    Decimals as accepted by new BigDecimal(String) ([+-]digits[.digits][e[+-]digits]), null for everything else.
+    Plain decimals that fit into a long are built without a detour over BigDecimal's parser.
+     */
+    static BigDecimal parseDecimal(char[] chars, int start, int end) {
+        return parseDecimal(chars, start, end, true);
+    }
+
+    //BigMoney.parse allows spaces in front of the amount but no exponent
+    private static BigDecimal parseAmount(char[] chars, int start, int end) {
+        while (start < end && chars[start] == ' ') start++;
+        return parseDecimal(chars, start, end, false);
+    }
+
+    private static BigDecimal parseDecimal(char[] chars, int start, int end, boolean exponent) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+        long unscaled = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            char ch = chars[i];
+            if (ch >= '0' && ch <= '9') {
+                if (++digits <= MAX_LONG_DIGITS) unscaled = unscaled * 10 + (ch - '0');
+                if (scale >= 0) scale++;
+            } else if (ch == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) return null;
+        if (i < end) {
+            if (!exponent || (chars[i] != 'e' && chars[i] != 'E')) return null;
+            int j = i + 1;
+            if (j < end && (chars[j] == '-' || chars[j] == '+')) j++;
+            if (j == end || end - j > MAX_EXPONENT_DIGITS) return null;
+            for (; j < end; j++) {
+                if (chars[j] < '0' || chars[j] > '9') return null;
+            }
+            //Validated, this cannot throw
+            return new BigDecimal(chars, start, end - start);
+        }
+        if (digits > MAX_LONG_DIGITS) return new BigDecimal(chars, start, end - start);
+        return BigDecimal.valueOf(negative ? -unscaled : unscaled, Math.max(scale, 0));
+    }
+
+    /*
+    dd-MM-yyyy, null if the date has a different layout or is not a valid date.
+    Like the SMART resolver days up to 31 are moved to the last day of shorter months.
+     */
+    private static LocalDate parseDate(String s) {
+        if (s.length() != 10 || s.charAt(2) != '-' || s.charAt(5) != '-') return null;
+        int day = digits(s, 0, 2);
+        int month = digits(s, 3, 5);
+        int year = digits(s, 6, 10);
+        if (day < 1 || day > 31 || month < 1 || month > 12 || year < 1) return null;
+        LocalDate first = LocalDate.of(year, month, 1);
+        return first.withDayOfMonth(Math.min(day, first.lengthOfMonth()));
+    }
+
+    /*
+    HH:mm as minute of the day, INVALID if the time has a different layout or is not a valid time.
+    24:00 is the end of the day (MINUTES_PER_DAY).
+     */
+    private static int parseTime(String s) {
+        if (s.length() != 5 || s.charAt(2) != ':') return INVALID;
+        int hour = digits(s, 0, 2);
+        int minute = digits(s, 3, 5);
+        if (hour < 0 || minute < 0 || minute > 59) return INVALID;
+        if (hour > 23 && !(hour == 24 && minute == 0)) return INVALID;
+        return hour * 60 + minute;
+    }
+
+    private static CurrencyUnit parseCurrency(String code) {
+        if (code.length() != 3) return null;
+        try {
+            return CurrencyUnit.of(code);
+        } catch (RuntimeException e) {
+            //Unknown currency. Happens once per distinct code, the rows only look up the result
+            return null;
+        }
+    }
+
+    //Value of the digits in [start, end) or -1 if there is anything else
+    private static int digits(String s, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') return -1;
+            value = value * 10 + (ch - '0');
+        }
+        return value;
+    }
+
+    private boolean isDictionary(int column) {
+        return column < table.getColumns() && table.getColumn(column) instanceof Table.DictionaryColumn;
+    }
+
+    private int entryCount(int column) {
+        return ((Table.DictionaryColumn) table.getColumn(column)).getEntryCount();
+    }
+
+    private String entry(int column, int code) {
+        return ((Table.DictionaryColumn) table.getColumn(column)).getEntry(code);
+    }
+
+    private int code(int column, int row) {
+        return ((Table.DictionaryColumn) table.getColumn(column)).getCode(row);
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package dhoehl.degiro;
+
+import dhoehl.html.ReportElements;
+import dhoehl.model.Asset;
+import dhoehl.model.Transaction;
+import dhoehl.utils.Fingerprint;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Pattern;
+
+/*
+The report split into pages, so a browser only loads the part that is looked at:
+  index.html           navigation, the overall section with links to the assets, failures
+  <year>.html          summary of the year with links to the assets
+  assets/<isin>.html   one asset over all years and per year, with its trades
+manifest.txt holds a fingerprint per page. A page is only written if its fingerprint changed or its file is missing.
+Asset pages are fingerprinted by what they show (their transactions, the cost basis, the layout and the locale), so
+unchanged assets are not even rendered. Index and year pages are small, they are rendered and fingerprinted by their
+content. Pages of an earlier run that are no longer part of the report are deleted.
+ */
+class HtmlPages {
+    static final String INDEX = "index.html";
+    static final String MANIFEST = "manifest.txt";
+    private static final String ASSETS = "assets";
+    private static final String EXTENSION = ".html";
+    //Only names like these are ever written, others in a manifest are not touched
+    private static final Pattern PAGE_NAME = Pattern.compile("(" + ASSETS + "/)?[A-Za-z0-9_-]+\\" + EXTENSION);
+    //Any change of the layout invalidates all asset pages
+    private static final long LAYOUT = new Fingerprint()
+            .add(ReportElements.APP_VERSION)
+            .add(ReportElements.HEADER)
+            .add(ReportElements.FOOTER)
+            .add(ReportElements.ASSET)
+            .add(ReportElements.ASSET_YEAR)
+            .add(ReportElements.TRANSACTION_ROW)
+            .get();
+
+    private final Depot depot;
+    private final File directory;
+    private final boolean parallel;
+    //Page of every asset, relative to the directory
+    private final Map<Asset, String> assetPages = new HashMap<>();
+    private final Map<String, String> written = new ConcurrentHashMap<>();
+    private Map<String, String> previous;
+
+    HtmlPages(Depot depot, File directory, boolean parallel) {
+        this.depot = depot;
+        this.directory = directory;
+        this.parallel = parallel;
+    }
+
+    void write() throws IOException {
+        File assets = new File(directory, ASSETS);
+        if (!assets.isDirectory() && !assets.mkdirs()) throw new IOException("Cannot create " + assets);
+        previous = readManifest();
+
+        DepotSummary summary = depot.getSummary();
+        Set<String> names = new HashSet<>();
+        for (Asset asset : summary.getAssets()) {
+            String name = asset.getIsin() == null ? "" : asset.getIsin().replaceAll("[^A-Za-z0-9_-]", "_");
+            if (name.isEmpty()) name = "asset";
+            String unique = name;
+            for (int i = 2; !names.add(unique.toUpperCase(Locale.ROOT)); i++) unique = name + "_" + i;
+            assetPages.put(asset, ASSETS + "/" + unique + EXTENSION);
+        }
+
+        if (parallel && summary.getAssets().size() > 1) {
+            List<ForkJoinTask<Void>> tasks = new ArrayList<>();
+            for (Asset asset : summary.getAssets()) {
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    writeAssetPage(asset);
+                    return (Void) null;
+                }).fork());
+            }
+            //All pages are waited for, so none is still written once this fails
+            RuntimeException failure = null;
+            for (ForkJoinTask<Void> task : tasks) {
+                try {
+                    task.join();
+                } catch (RuntimeException e) {
+                    if (failure == null) failure = e;
+                }
+            }
+            if (failure != null) {
+                //adapt wraps the IOException of the page, joining a task of another thread wraps it once more
+                for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+                    if (cause instanceof IOException) throw (IOException) cause;
+                }
+                throw failure;
+            }
+        } else {
+            for (Asset asset : summary.getAssets()) writeAssetPage(asset);
+        }
+
+        for (int i = depot.getMaxYear(); i >= depot.getMinYear(); i--) writeYearPage(i);
+        writeIndex();
+
+        if (!written.equals(previous)) writeManifest();
+        for (String page : previous.keySet()) {
+            if (!written.containsKey(page) && PAGE_NAME.matcher(page).matches()) Files.deleteIfExists(new File(directory, page).toPath());
+        }
+    }
+
+    private void writeAssetPage(Asset asset) throws IOException {
+        String page = assetPages.get(asset);
+        List<Integer> years = new ArrayList<>();
+        Fingerprint fingerprint = new Fingerprint()
+                .add(LAYOUT)
+                .add(Locale.getDefault())
+                .add(depot.getCostBasis())
+                .add(asset.getIsin())
+                .add(asset.getName())
+                .add(asset.getOverall().getCurrencyUnit());
+        for (int i = depot.getMaxYear(); i >= depot.getMinYear(); i--) {
+            Set<Transaction> transactions = asset.getTransactions(i);
+            if (transactions == null) continue;
+            years.add(i);
+            fingerprint.add(i);
+            for (Transaction t : transactions) {
+                fingerprint.add(t.getId()).add(t.getTimestamp()).add(t.getProduct()).add(t.getIsin()).add(t.getExchange())
+                        .add(t.getQuantity()).add(t.getPrice()).add(t.getAmountLocal()).add(t.getAmount())
+                        .add(t.getExchangeRate()).add(t.getFee()).add(t.getOverall());
+            }
+        }
+        if (isCurrent(page, fingerprint.toString())) return;
+
+        try {
+            try (Writer out = open(page)) {
+                HtmlReport htmlReport = new HtmlReport(out, false, new Links("../"));
+                htmlReport.appendPageHeader();
+                htmlReport.setSection(Depot.OVERALL_SECTION);
+                htmlReport.appendAsset(asset);
+                for (int year : years) {
+                    htmlReport.setSection(String.valueOf(year));
+                    htmlReport.appendAsset(asset, year);
+                }
+                htmlReport.finish();
+            }
+            commit(page);
+        } catch (IOException | RuntimeException e) {
+            discard(page);
+            throw e;
+        }
+    }
+
+    private void writeYearPage(int year) throws IOException {
+        StringWriter out = new StringWriter();
+        HtmlReport htmlReport = new HtmlReport(out, false, new Links(""));
+        htmlReport.appendPageHeader();
+        htmlReport.appendSection(String.valueOf(year));
+        depot.appendYearSummary(htmlReport, year);
+        htmlReport.appendAssetNavigation(depot.getSummary().getAssets(year), year);
+        htmlReport.finish();
+        writePage(year + EXTENSION, out.toString());
+    }
+
+    private void writeIndex() throws IOException {
+        DepotSummary summary = depot.getSummary();
+        StringWriter out = new StringWriter();
+        HtmlReport htmlReport = new HtmlReport(out, false, new Links(""));
+        htmlReport.appendHeader(depot.hasReportErrors(), depot.getReportSections());
+        htmlReport.appendSection(Depot.OVERALL_SECTION);
+        depot.appendOverallSummary(htmlReport);
+        htmlReport.appendAssetNavigation(summary.getAssets());
+        //Same order as in the single page report, where they are found while the years are written
+        for (int i = depot.getMaxYear(); i >= depot.getMinYear(); i--) {
+            for (Asset asset : summary.getAssets(i)) {
+                if (asset.hasErrors()) htmlReport.appendError(asset.getError());
+            }
+        }
+        depot.appendParsingErrors(htmlReport);
+        htmlReport.finish();
+        writePage(INDEX, out.toString());
+    }
+
+    private void writePage(String page, String content) throws IOException {
+        if (isCurrent(page, new Fingerprint().add(content).toString())) return;
+        try {
+            try (Writer out = open(page)) {
+                out.write(content);
+            }
+            commit(page);
+        } catch (IOException | RuntimeException e) {
+            discard(page);
+            throw e;
+        }
+    }
+
+    //Records the fingerprint, the page is only written if it differs from the last run
+    private boolean isCurrent(String page, String fingerprint) {
+        written.put(page, fingerprint);
+        return fingerprint.equals(previous.get(page)) && new File(directory, page).isFile();
+    }
+
+    //Pages are written next to their file and replace it once complete, so a failed run does not leave half a page
+    private Writer open(String page) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary(page)), StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    private void commit(String page) throws IOException {
+        try {
+            Files.move(temporary(page).toPath(), new File(directory, page).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary(page).toPath(), new File(directory, page).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    //A page that failed leaves no temporary file behind
+    private void discard(String page) {
+        File temporary = temporary(page);
+        if (temporary.exists() && !temporary.delete()) System.out.println("Could not delete " + temporary);
+    }
+
+    private File temporary(String page) {
+        return new File(directory, page + ".tmp");
+    }
+
+    //Fingerprint and page per line
+    private Map<String, String> readManifest() throws IOException {
+        Map<String, String> manifest = new HashMap<>();
+        File file = new File(directory, MANIFEST);
+        if (!file.isFile()) return manifest;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                //Anything else is not ours, the pages are just written again
+                if (separator > 0) manifest.put(line.substring(separator + 1), line.substring(0, separator));
+            }
+        }
+        return manifest;
+    }
+
+    private void writeManifest() throws IOException {
+        try (Writer out = open(MANIFEST)) {
+            for (Map.Entry<String, String> page : new TreeMap<>(written).entrySet()) {
+                out.write(page.getValue() + " " + page.getKey() + "\n");
+            }
+        }
+        commit(MANIFEST);
+    }
+
+    /*
+    Sections and the overall part of the index, assets on their pages. base leads from the page to the directory.
+     */
+    private class Links implements HtmlReport.Links {
+        private final String base;
+
+        Links(String base) {
+            this.base = base;
+        }
+
+        @Override
+        public String section(String name) {
+            if (name.equals(Depot.OVERALL_SECTION)) return base + INDEX + "#" + name;
+            return base + name + EXTENSION;
+        }
+
+        @Override
+        public String asset(Asset asset, String tag) {
+            return base + assetPages.get(asset) + "#" + tag;
+        }
+
+        @Override
+        public String navigation() {
+            return base + INDEX + "#navigation";
+        }
+    }
+}
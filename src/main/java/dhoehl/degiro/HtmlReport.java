@@ -19,155 +19,174 @@
 package dhoehl.degiro;
 
 
-import dhoehl.gui.Constants;
+import dhoehl.html.ReportElements;
 import dhoehl.model.Asset;
-import dhoehl.model.ParsingError;
+import dhoehl.model.CostBasis;
 import dhoehl.utils.MoneyUtils;
 import org.joda.money.BigMoney;
 
-public class HtmlReport implements Constants {
-    private final StringBuilder header = new StringBuilder(
-            "<!doctype html>\n" +
-                    "<html lang=\"de\">\n" +
-                    "\n" +
-                    "<head>\n" +
-                    "  <meta charset=\"utf-8\">\n" +
-                    "  <meta name=\"description\" content=\"Degiro report (inofficial)\">\n" +
-                    "  <title>Degiro report (inofficial)</title>\n" +
-                    "  <style>\n" +
-                    "    table {\n" +
-                    "      width: 100%;\n" +
-                    "    }\n" +
-                    "\n" +
-                    "    table,\n" +
-                    "    th,\n" +
-                    "    td {\n" +
-                    "      border: 1px solid black;\n" +
-                    "      border-collapse: collapse;\n" +
-                    "    }\n" +
-                    "\n" +
-                    "    th,\n" +
-                    "    td {\n" +
-                    "      padding: 15px;\n" +
-                    "      text-align: left;\n" +
-                    "    }\n" +
-                    "\n" +
-                    "    tr:nth-child(even) {\n" +
-                    "      background-color: #eee;\n" +
-                    "    }\n" +
-                    "\n" +
-                    "    tr:nth-child(odd) {\n" +
-                    "      background-color: #fff;\n" +
-                    "    }\n" +
-                    "\n" +
-                    "    th {\n" +
-                    "      background-color: rgb(65, 117, 194);\n" +
-                    "      color: white;\n" +
-                    "    }\n" +
-                    "  </style>\n" +
-                    "</head>\n" +
-                    "\n" +
-                    "<body>\n" +
-                    "  <h1>Degiro report (inofficial)</h1>\n" +
-                    "  <h5>" + DISCLAIMER_HTML + "</h5>\n" +
-                    "  <h4><span  style=\"color:#34b1eb\">If this tool was useful for you. Consider buying me a coffee via <a href=\"https://www.paypal.me/dhoehl\">PayPal</a></span></h4>"
-    );
-    private final String error =
-            "<h4 style=\"color:crimson;\">" +
-                    "Not all rows could be interpreted correctly. A" +
-                    "complete list of all faults can be found at the <a href=#failures>end</a> of this document. It is appreciated if you send your csv (of " +
-                    "course you can alter the data and/or only include the ones with the failure) by <a href=\"mailto:dhoehl@arcor.de?subject=DGRG_ERROR\">" +
-                    "mail</a>. I will try my best to bugfix things asap." +
-                    "<br><br> </h4>";
-    private String errorSection =
-            "<div id=\"failures\"></div>\n" +
-                    "  <h2><a href=#navigation>FAILURES</a><br></h2>\n";
-
-    private final StringBuilder navigation = new StringBuilder(
-            "<div id=\"navigation\"></div>\n" +
-                    "<h2>Navigation</h2>\n"
-    );
-
-    private final String footer =
-            "<p>Auto generated by Degiro report generator (Version: " + APP_VERSION + ", <a href=\"" + GIT_URL + "\">" + GIT_URL + "</a>)</p>\n" +
-                    "</body>\n" +
-                    "\n" +
-                    "</html>";
-
-    private final StringBuilder document = new StringBuilder();
-    private final StringBuilder errors = new StringBuilder();
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/*
+Writes the report straight to a Writer while it is produced, so the report is never held in memory as a whole.
+The navigation has to come in front of what it links to: the caller names all sections in appendHeader and the assets of
+a section in appendAssetNavigation before their bodies are written. Only the failures (messages, not report content)
+are kept until finish() writes them at the end.
+In parallel mode the assets are rendered by the common pool into buffers of their own. Everything written after an asset
+is kept behind its buffer, the buffers are written in order as they are done. Only a few assets per thread of the pool are
+in flight, so memory stays bounded.
+Where links point to is up to the Links, by default all targets are part of the same document.
+ */
+public class HtmlReport implements ReportElements {
+    //Rendered assets in flight per thread of the pool
+    private static final int PENDING_PER_THREAD = 4;
+
+    //All targets within one document
+    public static final Links SINGLE_PAGE = new Links() {
+        @Override
+        public String section(String name) {
+            return "#" + name;
+        }
 
-    private StringBuilder sectionNavigation;
-    private StringBuilder section;
+        @Override
+        public String asset(Asset asset, String tag) {
+            return "#" + tag;
+        }
 
+        @Override
+        public String navigation() {
+            return "#navigation";
+        }
+    };
+
+    private final Writer out;
+    private final boolean parallel;
+    private final Links links;
+    private final int maxPending = PENDING_PER_THREAD * ForkJoinPool.getCommonPoolParallelism();
+    //Assets being rendered, in report order
+    private final Deque<Block> pending = new ArrayDeque<>();
+    private final StringBuilder errors = new StringBuilder();
     private String sectionTag;
     private boolean appendError;
 
-    public void appendAsset(Asset asset) {
-        appendNavigationSection(sectionNavigation, asset.getName(), asset.getName());
-        section.append("<div id=\"" + asset.getName() + "\"></div>\n");
-        section.append(asset.toStringHtml(sectionTag));
+    public HtmlReport(Writer out) {
+        this(out, false);
     }
 
-    public void appendAsset(Asset asset, int year) {
-        //Check if there were errors
-        if (asset.hasErrors()) {
-            appendError = true;
-            appendError(asset.getError());
-        }
+    public HtmlReport(Writer out, boolean parallel) {
+        this(out, parallel, SINGLE_PAGE);
+    }
+
+    public HtmlReport(Writer out, boolean parallel, Links links) {
+        this.out = out;
+        this.parallel = parallel;
+        this.links = links;
+    }
+
+    /*
+    Head of the document and the navigation over all sections. Whether the failure note is shown has to be known up
+    front, failures of assets (see appendAsset(Asset, int)) count as well.
+     */
+    public void appendHeader(boolean hasErrors, Collection<String> sections) throws IOException {
+        appendError = hasErrors;
+        write(HEADER);
+        if (appendError) write(ERROR);
+        write("<div id=\"navigation\"></div>\n" +
+                "<h2>Navigation</h2>\n");
+        for (String section : sections) appendNavigation(section, links.section(section));
+    }
+
+    //Head of a document without navigation (a page of a split report)
+    public void appendPageHeader() throws IOException {
+        write(HEADER);
+    }
+
+    public void appendSection(String name) throws IOException {
+        sectionTag = name;
+        write("<div id=\"" + name + "\"></div>\n" +
+                "  <h2><a href=" + links.navigation() + ">" + name + "</a><br></h2>\n");
+    }
+
+    //Section the following assets belong to, without a heading (for pages that only hold assets)
+    public void setSection(String name) {
+        sectionTag = name;
+    }
 
-        appendNavigationSection(sectionNavigation, asset.getName(), asset.getName() + year);
-        section.append("<div id=\"" + asset.getName() + year + "\"></div>\n");
-        section.append(asset.toStringHtml(year, sectionTag));
+    //Links to the assets of the current section, written before the assets themselves
+    public void appendAssetNavigation(Collection<Asset> assets) throws IOException {
+        for (Asset asset : assets) appendNavigation(asset.getName(), links.asset(asset, asset.getName()));
     }
 
-    private void flush() {
-        //Flush old sections to the document if exist
-        if (sectionNavigation != null) {
-            document.append(sectionNavigation);
-            document.append(section);
+    public void appendAssetNavigation(Collection<Asset> assets, int year) throws IOException {
+        for (Asset asset : assets) appendNavigation(asset.getName(), links.asset(asset, asset.getName() + year));
+    }
 
+    public void appendAsset(Asset asset) throws IOException {
+        write("<div id=\"" + asset.getName() + "\"></div>\n");
+        String navLink = links.section(sectionTag);
+        if (!parallel) {
+            asset.appendHtml(out, navLink);
+            return;
         }
-        sectionNavigation = new StringBuilder();
-        section = new StringBuilder();
+        render(() -> {
+            StringBuilder sb = new StringBuilder();
+            asset.appendHtml(sb, navLink);
+            return sb;
+        });
     }
 
+    public void appendAsset(Asset asset, int year) throws IOException {
+        //Check if there were errors
+        if (asset.hasErrors()) appendError(asset.getError());
+
+        write("<div id=\"" + asset.getName() + year + "\"></div>\n");
+        String navLink = links.section(sectionTag);
+        if (!parallel) {
+            asset.appendHtml(out, year, navLink);
+            return;
+        }
+        render(() -> {
+            StringBuilder sb = new StringBuilder();
+            asset.appendHtml(sb, year, navLink);
+            return sb;
+        });
+    }
 
-    public void appendErrorHeader() {
-        appendError = true;
+    private void render(Callable<CharSequence> renderer) throws IOException {
+        pending.add(new Block(ForkJoinTask.adapt(renderer).fork()));
+        drain(maxPending);
     }
 
-    @Override
-    public String toString() {
-        flush();
-        StringBuilder sb = new StringBuilder(header);
-        if (appendError) {
-            return header.append(error).append(navigation).append(document).append(errorSection).append(errors).append(footer).toString();
-        } else {
-            return header.append(navigation).append(document).append(footer).toString();
+    //Writes the assets that are done, waits for the oldest ones while more than keep are pending
+    private void drain(int keep) throws IOException {
+        while (!pending.isEmpty() && (pending.size() > keep || pending.getFirst().rendering.isDone())) {
+            Block block = pending.removeFirst();
+            out.append(block.rendering.join());
+            out.append(block.after);
         }
     }
 
-    private void appendNavigationSection(StringBuilder sb, String name, String tag) {
-        sb.append(
-                "  <a href=\"#" + tag + "\">" + name + "</a><br>\n"
-        );
+    //Behind the last asset that is still rendered, if there is one
+    private void write(String s) throws IOException {
+        if (pending.isEmpty()) out.write(s);
+        else pending.getLast().after.append(s);
     }
 
-    public void appendSection(String name) {
-        flush();
-        sectionTag = name;
-        appendNavigationSection(navigation, name, name);
-        document.append(
-                "<div id=\"" + name + "\"></div>\n" +
-                        "  <h2><a href=#navigation>" + name + "</a><br></h2>\n"
-        );
+    private void appendNavigation(String name, String link) throws IOException {
+        write("  <a href=\"" + link + "\">" + name + "</a><br>\n");
     }
 
-    public void appendSectionSummary(long countStockSells, long countNonStockSells, long countStockBuys, long countNonStockBuys, BigMoney plStocks, BigMoney plNonStocks, BigMoney feesStocks, BigMoney feesNonStocks, BigMoney exchangefeesStocks, BigMoney exchangefeesNonStocks, BigMoney overall) {
+    public void appendSectionSummary(long countStockSells, long countNonStockSells, long countStockBuys, long countNonStockBuys, BigMoney plStocks, BigMoney plNonStocks, BigMoney feesStocks, BigMoney feesNonStocks, BigMoney exchangefeesStocks, BigMoney exchangefeesNonStocks, BigMoney overall) throws IOException {
         if (overall.compareTo(BigMoney.zero(overall.getCurrencyUnit())) != 0)
-            document.append("<p>Total (Open position inc. all P/L and fees): <b>" + MoneyUtils.toStringHtml(overall) + "</b></p>\n");
-        document.append("<p>Trade count (Stocks - Buys): <b>" + countStockBuys + "</b></p>\n" +
+            write("<p>Total (Open position inc. all P/L and fees): <b>" + MoneyUtils.toStringHtml(overall) + "</b></p>\n");
+        write("<p>Trade count (Stocks - Buys): <b>" + countStockBuys + "</b></p>\n" +
                 "<p>Trade count (Stocks - Sells): <b>" + countStockSells + "</b></p>\n" +
                 "<p>Trade count (Non stocks - Buys): <b>" + countNonStockBuys + "</b></p>\n" +
                 "<p>Trade count (Non stocks - Sells): <b>" + countNonStockSells + "</b></p>\n" +
@@ -186,7 +205,50 @@ public class HtmlReport implements Constants {
         ;
     }
 
+    public void appendCostBasis(CostBasis costBasis) throws IOException {
+        write("<p>Cost basis: <b>" + costBasis.getDescription() + "</b></p>\n");
+    }
+
+    public void appendCostBasisComparison(CostBasis costBasis, BigMoney plStocks, BigMoney plNonStocks) throws IOException {
+        write("<p>Profit/Loss (" + costBasis.getDescription() + "): <b>" + MoneyUtils.toStringHtml(plStocks.plus(plNonStocks)) + "</b>" +
+                " (Stocks: " + MoneyUtils.toStringHtml(plStocks) + ", Non stocks: " + MoneyUtils.toStringHtml(plNonStocks) + ")</p>\n");
+    }
+
     public void appendError(String errorMessage) {
         errors.append("<h4 style=\"color:crimson;\">" + errorMessage + "<br></h4>");
     }
+
+    //Failures and footer, the writer is flushed but not closed
+    public void finish() throws IOException {
+        drain(0);
+        if (appendError) {
+            out.write(ERROR_SECTION);
+            out.append(errors);
+        }
+        out.write(FOOTER);
+        out.flush();
+    }
+
+    private static class Block {
+        private final ForkJoinTask<CharSequence> rendering;
+        //Written after the asset
+        private final StringBuilder after = new StringBuilder();
+
+        Block(ForkJoinTask<CharSequence> rendering) {
+            this.rendering = rendering;
+        }
+    }
+
+    /*
+    Targets of the links, relative to the document that is written
+     */
+    public interface Links {
+        //Heading of a section
+        String section(String name);
+
+        //Asset within a section, tag is its id there
+        String asset(Asset asset, String tag);
+
+        String navigation();
+    }
 }
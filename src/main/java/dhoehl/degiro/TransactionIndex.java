@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dhoehl.degiro;
+
+import dhoehl.model.Asset;
+import dhoehl.model.Transaction;
+import dhoehl.model.TransactionStore;
+import org.joda.money.CurrencyUnit;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+/*
+Secondary indexes over the transactions of a depot, for TransactionQuery.
+The transactions are addressed by their position in the time order of the depot, so the time order itself is the time
+index: a date range is a range of positions, found by binary search. For isin, exchange, currency, asset type and
+transaction type there is an inverted index (sorted positions per value) and a code per position.
+A query takes the smallest posting list within the range and checks the other conditions on the codes, so it costs
+log n plus the size of that list.
+ */
+class TransactionIndex {
+    private final TransactionStore store;
+    //Store indices in time order
+    private final int[] order;
+    private final int count;
+
+    private final Field<String> isins;
+    private final Field<String> exchanges;
+    private final Field<CurrencyUnit> currencies;
+    private final Field<Asset.Type> assetTypes;
+    private final Field<Transaction.Type> types;
+
+    TransactionIndex(TransactionStore store, int[] order, int count, Map<String, Asset> assets) {
+        this.store = store;
+        this.order = Arrays.copyOf(order, count);
+        this.count = count;
+        isins = new Field<>(count);
+        exchanges = new Field<>(count);
+        currencies = new Field<>(count);
+        assetTypes = new Field<>(count);
+        types = new Field<>(count);
+        for (int position = 0; position < count; position++) {
+            Transaction t = store.get(this.order[position]);
+            Asset asset = assets.get(t.getIsin());
+            isins.add(position, t.getIsin());
+            exchanges.add(position, t.getExchange());
+            currencies.add(position, t.getOverall().getCurrencyUnit());
+            assetTypes.add(position, asset != null ? asset.getType() : Asset.Type.parseName(t.getProduct()));
+            types.add(position, t.getType());
+        }
+    }
+
+    SortedSet<Transaction> execute(TransactionQuery query) {
+        int from = query.getFrom() == null ? 0 : lowerBound(query.getFrom());
+        //An end before the start is an empty range
+        int to = query.getTo() == null ? count : Math.max(lowerBound(query.getTo()), from);
+        List<Condition> conditions = new ArrayList<>();
+        if (!addCondition(conditions, isins, query.getIsin(), from, to)
+                || !addCondition(conditions, exchanges, query.getExchange(), from, to)
+                || !addCondition(conditions, currencies, query.getCurrency(), from, to)
+                || !addCondition(conditions, assetTypes, query.getAssetType(), from, to)
+                || !addCondition(conditions, types, query.getType(), from, to)) {
+            return store.view(new int[0], 0);
+        }
+
+        //Walk the smallest posting list, or the whole range if there is no condition
+        Condition smallest = null;
+        for (Condition c : conditions) {
+            if (smallest == null || c.end - c.start < smallest.end - smallest.start) smallest = c;
+        }
+        int[] result = new int[smallest == null ? to - from : smallest.end - smallest.start];
+        int size = 0;
+        for (int i = 0; i < result.length; i++) {
+            int position = smallest == null ? from + i : smallest.postings[smallest.start + i];
+            if (matches(conditions, position)) result[size++] = order[position];
+        }
+        return store.view(result, size);
+    }
+
+    //No condition if the value is null, false if no transaction can match
+    private static <T> boolean addCondition(List<Condition> conditions, Field<T> field, T value, int from, int to) {
+        if (value == null) return true;
+        Integer code = field.codes.get(value);
+        if (code == null) return false;
+        int[] postings = field.postings[code];
+        int size = field.sizes[code];
+        conditions.add(new Condition(field, code, postings, lowerBound(postings, size, from), lowerBound(postings, size, to)));
+        return true;
+    }
+
+    private static boolean matches(List<Condition> conditions, int position) {
+        for (Condition c : conditions) {
+            if (c.field.values[position] != c.code) return false;
+        }
+        return true;
+    }
+
+    //First position with a timestamp at or after the given one
+    private int lowerBound(LocalDateTime timestamp) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (store.get(order[middle]).getTimestamp().compareTo(timestamp) < 0) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    private static int lowerBound(int[] postings, int size, int position) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (postings[middle] < position) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /*
+    Code of the value per position and the positions per code (ascending)
+     */
+    private static class Field<T> {
+        private final int[] values;
+        private final Map<T, Integer> codes = new HashMap<>();
+        private int[][] postings = new int[8][];
+        private int[] sizes = new int[8];
+
+        Field(int count) {
+            values = new int[count];
+        }
+
+        void add(int position, T value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = codes.size();
+                codes.put(value, code);
+                if (code == postings.length) {
+                    postings = Arrays.copyOf(postings, code * 2);
+                    sizes = Arrays.copyOf(sizes, code * 2);
+                }
+                postings[code] = new int[8];
+            }
+            values[position] = code;
+            if (sizes[code] == postings[code].length) postings[code] = Arrays.copyOf(postings[code], sizes[code] * 2);
+            postings[code][sizes[code]++] = position;
+        }
+    }
+
+    private static class Condition {
+        private final Field<?> field;
+        private final int code;
+        private final int[] postings;
+        private final int start;
+        private final int end;
+
+        Condition(Field<?> field, int code, int[] postings, int start, int end) {
+            this.field = field;
+            this.code = code;
+            this.postings = postings;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
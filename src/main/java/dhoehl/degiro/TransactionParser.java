@@ -22,93 +22,249 @@ package dhoehl.degiro;
 import dhoehl.model.ParsingError;
 import dhoehl.model.Table;
 import dhoehl.model.Transaction;
-import dhoehl.utils.ExceptionUtils;
+import dhoehl.model.TransactionStore;
 import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class TransactionParser {
-    private static final String DATE_TIME_PATTERN = "dd-MM-yyyyHH:mm";
-    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern(DATE_TIME_PATTERN);
-    private Set<Transaction> mParsedTransactions;
+    //Layout of the degiro csv
+    private static final int DATE = 0;
+    private static final int TIME = 1;
+    private static final int PRODUCT = 2;
+    private static final int ISIN = 3;
+    private static final int EXCHANGE = 4;
+    private static final int QUANTITY = 5;
+    //Money values are the currency followed by the amount
+    private static final int PRICE = 6;
+    private static final int AMOUNT_LOCAL = 8;
+    private static final int AMOUNT = 10;
+    private static final int EXCHANGE_RATE = 12;
+    private static final int FEE = 13;
+    private static final int OVERALL = 15;
+    private static final int ID = 17;
+
+    private static final int PARALLEL_THRESHOLD = 50_000;
+    private static final int MIN_ROWS_PER_RUN = 10_000;
+    //Further errors are only counted, a broken file must not end up with a message for each of its rows
+    private static final int MAX_STORED_ERRORS = 1000;
+
+    private List<Transaction> mParsedTransactions;
     private List<ParsingError> mParsingErrors = new ArrayList<>();
+    private int mErrorCount;
 
     public TransactionParser(Table transactionTable){
         mParsedTransactions = parseTransactions(transactionTable);
     }
 
-    private Set<Transaction> parseTransactions(Table transactionTable) {
-        //Get rid of the Headline - No useful data
-        transactionTable.deleteRow(0);
-        Set<Transaction> transactionMap = new TreeSet<>();
+    private List<Transaction> parseTransactions(Table transactionTable) {
+        //The headline is not part of the rows
+        int rows = transactionTable.getRows();
+        if (rows == 0) return Collections.emptyList();
+        FieldParser parser = new FieldParser(transactionTable, DATE, TIME, PRICE, AMOUNT_LOCAL, AMOUNT, FEE, OVERALL);
+
+        //Rows are independent, large tables are split into ranges that are parsed in parallel
+        List<Run> runs = new ArrayList<>();
+        if (rows < PARALLEL_THRESHOLD) {
+            runs.add(parseRun(transactionTable, parser, 0, rows));
+        } else {
+            int count = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, rows / MIN_ROWS_PER_RUN));
+            List<ForkJoinTask<Run>> tasks = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int from = (int) ((long) rows * i / count);
+                int to = (int) ((long) rows * (i + 1) / count);
+                tasks.add(ForkJoinPool.commonPool().submit(() -> parseRun(transactionTable, parser, from, to)));
+            }
+            for (ForkJoinTask<Run> task : tasks) runs.add(task.join());
+        }
+
+        //Runs are in row order, so are their errors. Every run kept its first errors, so these are the first overall
+        for (Run run : runs) {
+            mErrorCount += run.errorCount;
+            for (ParsingError pe : run.errors) {
+                if (mParsingErrors.size() == MAX_STORED_ERRORS) break;
+                mParsingErrors.add(pe);
+                System.out.println(pe);
+            }
+        }
+        if (mErrorCount > mParsingErrors.size())
+            System.out.println((mErrorCount - mParsingErrors.size()) + " more rows could not be parsed");
+        return merge(runs);
+    }
+
+    /*
+    Parses the rows [from, to) into a sorted run
+     */
+    private static Run parseRun(Table transactionTable, FieldParser parser, int from, int to) {
+        Run run = new Run(to - from);
         //We assume this table to have the same amount of columns for each row
-        for (int i = 0; i < transactionTable.getRows(); i++) {
+        for (int i = from; i < to; i++) {
             //There is one transaction per row
-            //Read all the fields
-            String toParse = "";
             try {
-                toParse = transactionTable.getCell(i, 0) + transactionTable.getCell(i, 1);
-                LocalDateTime timestamp = LocalDateTime.parse(toParse, DATE_TIME_FORMATTER);
+                Transaction transaction = parseRow(transactionTable, parser, i, run);
+                if (transaction != null) run.transactions.add(transaction);
+            } catch (RuntimeException e) {
+                //Everything the validation does not know of
+                fail(run, transactionTable, i, -1, ParsingError.Reason.UNEXPECTED, e);
+            }
+        }
+        //Stable, so of two equal transactions the one of the earlier row stays first
+        Collections.sort(run.transactions);
+        return run;
+    }
+
+    /*
+    Validates the fields of a row and creates its transaction. Invalid rows are reported to the run and return null,
+    nothing is thrown for them.
+     */
+    private static Transaction parseRow(Table table, FieldParser parser, int i, Run run) {
+        LocalDateTime timestamp = parser.parseTimestamp(i, DATE, TIME);
+        if (timestamp == null) return fail(run, table, i, DATE, ParsingError.Reason.INVALID_DATE, null);
+
+        String product = parser.getString(i, PRODUCT);
+        String isin = parser.getString(i, ISIN);
+        String exchange = parser.getString(i, EXCHANGE);
+
+        if (parser.isEmpty(i, QUANTITY)) return fail(run, table, i, QUANTITY, ParsingError.Reason.MISSING_VALUE, null);
+        BigDecimal quantity = parser.parseDecimal(i, QUANTITY);
+        if (quantity == null) return fail(run, table, i, QUANTITY, ParsingError.Reason.INVALID_NUMBER, null);
 
-                toParse = transactionTable.getCell(i, 2);
-                String product = toParse;
+        //Empty money is null, so null only is an error if there was something to parse
+        BigMoney price = parser.parseMoney(i, PRICE);
+        if (price == null && !parser.isEmptyMoney(i, PRICE)) return fail(run, table, i, PRICE, parser.getMoneyError(i, PRICE), null);
 
-                toParse = transactionTable.getCell(i, 3);
-                String isin = toParse;
+        BigMoney amountLocal = parser.parseMoney(i, AMOUNT_LOCAL);
+        if (amountLocal == null) return failMoney(run, table, parser, i, AMOUNT_LOCAL);
 
-                toParse = transactionTable.getCell(i, 4);
-                String exchange = toParse;
+        BigMoney amount = parser.parseMoney(i, AMOUNT);
+        if (amount == null && !parser.isEmptyMoney(i, AMOUNT)) return fail(run, table, i, AMOUNT, parser.getMoneyError(i, AMOUNT), null);
 
-                toParse = transactionTable.getCell(i, 5);
-                BigDecimal quantity = new BigDecimal(toParse);
+        BigDecimal exchangeRate = BigDecimal.ONE;
+        if (!parser.isEmpty(i, EXCHANGE_RATE)) {
+            exchangeRate = parser.parseDecimal(i, EXCHANGE_RATE);
+            if (exchangeRate == null) return fail(run, table, i, EXCHANGE_RATE, ParsingError.Reason.INVALID_NUMBER, null);
+        }
 
-                toParse = transactionTable.getCell(i, 6) + transactionTable.getCell(i, 7);
-                BigMoney price = toParse.equals("") ? null : BigMoney.parse(toParse);
+        BigMoney fee = parser.parseMoney(i, FEE);
+        if (fee == null && !parser.isEmptyMoney(i, FEE)) return fail(run, table, i, FEE, parser.getMoneyError(i, FEE), null);
 
-                toParse = transactionTable.getCell(i, 8) + transactionTable.getCell(i, 9);
-                BigMoney amountLocal = toParse.equals("") ? null : BigMoney.parse(toParse);
+        BigMoney overall = parser.parseMoney(i, OVERALL);
+        if (overall == null) return failMoney(run, table, parser, i, OVERALL);
 
-                toParse = transactionTable.getCell(i, 10) + transactionTable.getCell(i, 11);
-                BigMoney amount = toParse.equals("") ? null : BigMoney.parse(toParse);
+        //What the transaction computes from the values has to work out as well
+        CurrencyUnit currency = overall.getCurrencyUnit();
+        if (fee != null && !fee.getCurrencyUnit().equals(currency))
+            return fail(run, table, i, FEE, ParsingError.Reason.CURRENCY_MISMATCH, null);
+        if (!amountLocal.getCurrencyUnit().equals(currency)) {
+            //Exchanged, the exchange fee is calculated from the amount and the rate
+            if (amount == null) return fail(run, table, i, AMOUNT, ParsingError.Reason.MISSING_VALUE, null);
+            if (!amount.getCurrencyUnit().equals(currency))
+                return fail(run, table, i, AMOUNT, ParsingError.Reason.CURRENCY_MISMATCH, null);
+            if (exchangeRate.signum() == 0) return fail(run, table, i, EXCHANGE_RATE, ParsingError.Reason.INVALID_NUMBER, null);
+        }
 
-                toParse = transactionTable.getCell(i, 12);
-                BigDecimal exchangeRate = toParse.equals("") ? BigDecimal.ONE : new BigDecimal(toParse);
+        String id = parser.getString(i, ID);
+        return run.store.get(run.store.add(id, timestamp, product, isin, exchange, quantity, price, amount, amountLocal, exchangeRate, fee, overall));
+    }
 
-                toParse = transactionTable.getCell(i, 13) + transactionTable.getCell(i, 14);
-                BigMoney fee = toParse.equals("") ? null : BigMoney.parse(toParse);
+    //For money that must not be empty
+    private static Transaction failMoney(Run run, Table table, FieldParser parser, int i, int column) {
+        ParsingError.Reason reason = parser.isEmptyMoney(i, column) ? ParsingError.Reason.MISSING_VALUE : parser.getMoneyError(i, column);
+        return fail(run, table, i, column, reason, null);
+    }
 
-                toParse = transactionTable.getCell(i, 15) + transactionTable.getCell(i, 16);
-                BigMoney overall = toParse.equals("") ? null : BigMoney.parse(toParse);
+    private static Transaction fail(Run run, Table table, int i, int column, ParsingError.Reason reason, Exception cause) {
+        run.errorCount++;
+        //Only the first errors are kept, for all others the texts are not even looked up
+        if (run.errors.size() < MAX_STORED_ERRORS) {
+            //To compare with the csv add i+2 (starts at zero and the headline is not a row)
+            run.errors.add(new ParsingError(i + 2, column, reason, getFieldText(table, i, column), table.getRow(i), cause));
+        }
+        return null;
+    }
 
-                toParse = transactionTable.getCell(i, 17);
-                String id = toParse;
+    /*
+    k-way merge of the sorted runs. Like adding them to a TreeSet one by one, only the first of equal transactions is kept.
+    The result is in order and free of duplicates.
+     */
+    private static List<Transaction> merge(List<Run> runs) {
+        int total = 0;
+        for (Run run : runs) total += run.transactions.size();
+        List<Transaction> merged = new ArrayList<>(total);
 
-                Transaction transaction = new Transaction(id, timestamp, product, isin, exchange, quantity, price, amount, amountLocal, exchangeRate, fee, overall);
-                transactionMap.add(transaction);
-            } catch (Exception e) {
-                //To compare with the csv add i+2 (starts at zero and first row is stripped)
-                ParsingError pe =  new ParsingError("Failed to parse " + toParse + " in row " + (i+2) + " (" + transactionTable.getRow(i) + ")\nError: " + e.getMessage(), ExceptionUtils.getStackTrace(e));
-                mParsingErrors.add(pe);
-                System.out.println(pe);
+        int[] positions = new int[runs.size()];
+        //Ties are broken by the run, earlier rows come first
+        PriorityQueue<Integer> heads = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+            int c = runs.get(a).transactions.get(positions[a]).compareTo(runs.get(b).transactions.get(positions[b]));
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        for (int i = 0; i < runs.size(); i++) {
+            if (!runs.get(i).transactions.isEmpty()) heads.add(i);
+        }
+        while (!heads.isEmpty()) {
+            int run = heads.poll();
+            Transaction t = runs.get(run).transactions.get(positions[run]++);
+            if (merged.isEmpty() || merged.get(merged.size() - 1).compareTo(t) != 0) merged.add(t);
+            if (positions[run] < runs.get(run).transactions.size()) heads.add(run);
+        }
+        return Collections.unmodifiableList(merged);
+    }
+
+    private static class Run {
+        //Every run has a store of its own, so runs do not have to be synchronized
+        private final TransactionStore store;
+        private final List<Transaction> transactions;
+        private final List<ParsingError> errors = new ArrayList<>();
+        private int errorCount;
+
+        Run(int rows) {
+            store = new TransactionStore(rows);
+            transactions = new ArrayList<>(rows);
+        }
+    }
+
+    //The text that was parsed for a field, values consisting of two cells are joined
+    private static String getFieldText(Table table, int row, int column) {
+        if (column < 0) return "";
+        try {
+            switch (column) {
+                case DATE:
+                case PRICE:
+                case AMOUNT_LOCAL:
+                case AMOUNT:
+                case FEE:
+                case OVERALL:
+                    return table.getCell(row, column) + table.getCell(row, column + 1);
+                default:
+                    return table.getCell(row, column);
             }
+        } catch (IndexOutOfBoundsException e) {
+            return "";
         }
-        return transactionMap;
     }
 
-    public Set<Transaction> getParsedTransactions() {
+    //In order, without duplicates
+    public List<Transaction> getParsedTransactions() {
         return mParsedTransactions;
     }
 
     public boolean hasParsingErrors(){
         return mParsingErrors.size() > 0;
     }
+    //Only the first errors are kept, see getErrorCount for all of them
     public List<ParsingError> getParsingErrors() {
         return mParsingErrors;
     }
+
+    public int getErrorCount() {
+        return mErrorCount;
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dhoehl.degiro;
+
+import dhoehl.model.Asset;
+import dhoehl.model.Transaction;
+import org.joda.money.CurrencyUnit;
+
+import java.time.LocalDateTime;
+import java.util.SortedSet;
+
+/*
+Query over the transactions of a depot, e.g.
+  depot.query().type(Transaction.Type.SELL).exchange("XET").assetType(Asset.Type.OTHER).between(from, to).execute()
+Conditions that are not set (null) match everything. The result is in time order.
+ */
+public class TransactionQuery {
+    private final Depot depot;
+    private String isin;
+    private String exchange;
+    private CurrencyUnit currency;
+    private Asset.Type assetType;
+    private Transaction.Type type;
+    private LocalDateTime from;
+    private LocalDateTime to;
+
+    TransactionQuery(Depot depot) {
+        this.depot = depot;
+    }
+
+    public TransactionQuery isin(String isin) {
+        this.isin = isin;
+        return this;
+    }
+
+    public TransactionQuery exchange(String exchange) {
+        this.exchange = exchange;
+        return this;
+    }
+
+    //Currency of the overall amount
+    public TransactionQuery currency(CurrencyUnit currency) {
+        this.currency = currency;
+        return this;
+    }
+
+    public TransactionQuery assetType(Asset.Type assetType) {
+        this.assetType = assetType;
+        return this;
+    }
+
+    public TransactionQuery type(Transaction.Type type) {
+        this.type = type;
+        return this;
+    }
+
+    //Inclusive
+    public TransactionQuery from(LocalDateTime from) {
+        this.from = from;
+        return this;
+    }
+
+    //Exclusive
+    public TransactionQuery to(LocalDateTime to) {
+        this.to = to;
+        return this;
+    }
+
+    public TransactionQuery between(LocalDateTime from, LocalDateTime to) {
+        return from(from).to(to);
+    }
+
+    public SortedSet<Transaction> execute() {
+        return depot.getIndex().execute(this);
+    }
+
+    String getIsin() {
+        return isin;
+    }
+
+    String getExchange() {
+        return exchange;
+    }
+
+    CurrencyUnit getCurrency() {
+        return currency;
+    }
+
+    Asset.Type getAssetType() {
+        return assetType;
+    }
+
+    Transaction.Type getType() {
+        return type;
+    }
+
+    LocalDateTime getFrom() {
+        return from;
+    }
+
+    LocalDateTime getTo() {
+        return to;
+    }
+}
@@ -20,7 +20,6 @@ package dhoehl.gui;
 
 
 import dhoehl.degiro.Depot;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.SelectionAdapter;
@@ -95,7 +94,7 @@ public class DegiroDialog extends JFrame implements Constants {
                         fileToSave = new File(fileToSave.toString() + ".html");
                     }
                     try {
-                        FileUtils.writeStringToFile(fileToSave, degiro.toStringHtml());
+                        degiro.writeHtml(fileToSave);
                     } catch (IOException ex) {
                         ex.printStackTrace();
                     }
@@ -18,51 +18,137 @@
 
 package dhoehl.html;
 
-public interface ReportElements {
-  String DEGIRO_HEADER = "<!doctype html>\n" +
-          "<html lang=\"de\">\n" +
-          "\n" +
-          "<head>\n" +
-          "  <meta charset=\"utf-8\">\n" +
-          "  <meta name=\"description\" content=\"Degiro inofficial report\">\n" +
-          "  <title>Degiro report (inofficial)</title>\n" +
-          "  <style>\n" +
-          "    table {\n" +
-          "      width: 100%;\n" +
-          "    }\n" +
-          "\n" +
-          "    table,\n" +
-          "    th,\n" +
-          "    td {\n" +
-          "      border: 1px solid black;\n" +
-          "      border-collapse: collapse;\n" +
-          "    }\n" +
-          "\n" +
-          "    th,\n" +
-          "    td {\n" +
-          "      padding: 15px;\n" +
-          "      text-align: left;\n" +
-          "    }\n" +
-          "\n" +
-          "    #t01 tr:nth-child(even) {\n" +
-          "      background-color: #eee;\n" +
-          "    }\n" +
-          "\n" +
-          "    #t01 tr:nth-child(odd) {\n" +
-          "      background-color: #fff;\n" +
-          "    }\n" +
-          "\n" +
-          "    #t01 th {\n" +
-          "      background-color: sandybrown;\n" +
-          "      color: white;\n" +
-          "    }\n" +
-          "  </style>\n" +
-          "</head>";
+import dhoehl.gui.Constants;
 
-  String DEGIRO_ERROR = "<h4 style=\"color:crimson;\">Not all rows could be interpreted correctly. The respective sections are marked as such. A\n" +
-          "    complete list of all faults can be found at the end of this document. It is appreciated if you send your csv (of\n" +
-          "    course you can alter the data and only include the ones with the failure) by <a href=\"mailto:dhoehl@arcor.de\">\n" +
-          "      mail</a>. I will try my best to bugfix things asap.<br><br> </h4>";
+/*
+Fixed parts and templates (see ReportGenerator) of the html report
+ */
+public interface ReportElements extends Constants {
+    String HEADER =
+            "<!doctype html>\n" +
+                    "<html lang=\"de\">\n" +
+                    "\n" +
+                    "<head>\n" +
+                    "  <meta charset=\"utf-8\">\n" +
+                    "  <meta name=\"description\" content=\"Degiro report (inofficial)\">\n" +
+                    "  <title>Degiro report (inofficial)</title>\n" +
+                    "  <style>\n" +
+                    "    table {\n" +
+                    "      width: 100%;\n" +
+                    "    }\n" +
+                    "\n" +
+                    "    table,\n" +
+                    "    th,\n" +
+                    "    td {\n" +
+                    "      border: 1px solid black;\n" +
+                    "      border-collapse: collapse;\n" +
+                    "    }\n" +
+                    "\n" +
+                    "    th,\n" +
+                    "    td {\n" +
+                    "      padding: 15px;\n" +
+                    "      text-align: left;\n" +
+                    "    }\n" +
+                    "\n" +
+                    "    tr:nth-child(even) {\n" +
+                    "      background-color: #eee;\n" +
+                    "    }\n" +
+                    "\n" +
+                    "    tr:nth-child(odd) {\n" +
+                    "      background-color: #fff;\n" +
+                    "    }\n" +
+                    "\n" +
+                    "    th {\n" +
+                    "      background-color: rgb(65, 117, 194);\n" +
+                    "      color: white;\n" +
+                    "    }\n" +
+                    "  </style>\n" +
+                    "</head>\n" +
+                    "\n" +
+                    "<body>\n" +
+                    "  <h1>Degiro report (inofficial)</h1>\n" +
+                    "  <h5>" + DISCLAIMER_HTML + "</h5>\n" +
+                    "  <h4><span  style=\"color:#34b1eb\">If this tool was useful for you. Consider buying me a coffee via <a href=\"https://www.paypal.me/dhoehl\">PayPal</a></span></h4>";
+
+    String ERROR =
+            "<h4 style=\"color:crimson;\">" +
+                    "Not all rows could be interpreted correctly. A" +
+                    "complete list of all faults can be found at the <a href=#failures>end</a> of this document. It is appreciated if you send your csv (of " +
+                    "course you can alter the data and/or only include the ones with the failure) by <a href=\"mailto:dhoehl@arcor.de?subject=DGRG_ERROR\">" +
+                    "mail</a>. I will try my best to bugfix things asap." +
+                    "<br><br> </h4>";
+    String ERROR_SECTION =
+            "<div id=\"failures\"></div>\n" +
+                    "  <h2><a href=#navigation>FAILURES</a><br></h2>\n";
+
+    String FOOTER =
+            "<p>Auto generated by Degiro report generator (Version: " + APP_VERSION + ", <a href=\"" + GIT_URL + "\">" + GIT_URL + "</a>)</p>\n" +
+                    "</body>\n" +
+                    "\n" +
+                    "</html>";
+
+    String TABLE_HEAD = "<tr>" +
+            "<th>#</th>" +
+            "<th>Type</th>" +
+            "<th>Date/Time</th>" +
+            "<th>Product</th>" +
+            "<th>ISIN</th>\n" +
+            "<th>Exchange</th>\n" +
+            "<th>Quantity</th>\n" +
+            "<th>Price</th>\n" +
+            "<th>Amount local</th>\n" +
+            "<th>Exchange rate</th>\n" +
+            "<th>Exchange fee</th>\n" +
+            "<th>Amount</th>\n" +
+            "<th>Fee</th>\n" +
+            "<th>Amount total</th>\n" +
+            "</tr>\n";
+
+    //Row of the transaction table, {{@index}} is the number of the row
+    String TRANSACTION_ROW = "<tr>" +
+            "<td>{{@index}}</td>" +
+            "{{type}}" +
+            "<td>{{timestamp}}</td>" +
+            "<td>{{product}}</td>" +
+            "<td>{{isin}}</td>" +
+            "<td>{{exchange}}</td>" +
+            "<td>{{quantity}}</td>" +
+            "<td>{{price}}</td>" +
+            "<td>{{amountLocal}}</td>" +
+            "<td>{{exchangeRate}}</td>" +
+            "<td>{{exchangeFee}}</td>" +
+            "<td>{{amount}}</td>" +
+            "<td>{{fee}}</td>" +
+            "<td>{{overall}}</td>" +
+            "</tr>\n";
+
+    String ASSET_HEADING = "<h2><a href=\"{{navLink}}\">{{name}}</a></h2>\n" +
+            "{{?hasErrors}}<p style=\"color:crimson;\">{{error}}<br></p>{{/hasErrors}}";
+
+    String ASSET_TRADE_COUNTS = "<p>Trade count (Sells): <b>{{sells}}</b></p>\n" +
+            "<p>Trade count (Buys): <b>{{buys}}</b></p>\n" +
+            "<p>Trade count: <b>{{trades}}</b></p>\n";
+
+    String ASSET_TOTALS = "<p>Profit/Loss: <b>{{profitLoss}}</b></p>\n" +
+            "<p>Payed transaction fees: <b>{{fees}}</b></p>\n" +
+            "<p>Payed currency exchange fees: <b>{{exchangeFees}}</b></p>\n" +
+            "<p>Payed fees: <b>{{allFees}}</b></p>\n" +
+            "<p>Profit/Loss (Fees included): <b>{{profitLossTotal}}</b></p>\n" +
+            "<p>Trades: </p>\n" +
+            "<table style=\"width:100%\">\n" +
+            TABLE_HEAD +
+            "{{#transactions}}" +
+            "</table>\n\n";
 
+    //Asset in the overall section
+    String ASSET = ASSET_HEADING +
+            "<p>Quantity: <b>{{quantity}} pcs. </b></p>\n" +
+            "<p>Total (Open position inc. all P/L and fees): <b>{{overall}}</b></p>\n" +
+            ASSET_TRADE_COUNTS +
+            ASSET_TOTALS;
 
+    //Asset in the section of a year
+    String ASSET_YEAR = ASSET_HEADING +
+            ASSET_TRADE_COUNTS +
+            ASSET_TOTALS;
 }
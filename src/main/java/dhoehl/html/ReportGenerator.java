@@ -16,28 +16,182 @@
  * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+
 package dhoehl.html;
 
-public class ReportGenerator {
-    private final StringBuilder sb = new StringBuilder();
+import dhoehl.utils.DateUtils;
+import dhoehl.utils.MoneyUtils;
+import org.joda.money.BigMoney;
 
-    public ReportGenerator(String title){
-    }
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/*
+Small template engine for the report. A template is parsed once (when the class using it is loaded) into a list of
+instructions, which are then executed against model objects and write straight to an Appendable.
+Syntax:
+  {{name}}              value of the field bound to name
+  {{?name}}...{{/name}} the enclosed part, only if the condition bound to name holds
+  {{#name}}             the template bound to name, once for every element of the list bound to name
+  {{@index}}            number of the element within its list, starting at 1
+Everything else is literal text. Names that are not bound fail when the template is compiled, not when it is used.
+Compiled templates are immutable and can be used by several threads at once.
+ */
+public class ReportGenerator<T> {
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+    private static final String INDEX = "@index";
 
-    public void appendSection(String title){
+    private final Instruction<T>[] instructions;
 
+    private ReportGenerator(Instruction<T>[] instructions) {
+        this.instructions = instructions;
     }
 
-    public void appendTable(String tableTitle, int columns){
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
 
+    public void write(Appendable out, T model) throws IOException {
+        write(out, model, 0);
     }
 
-    public void appendTabelRow(String[] elements){
+    //index is the number shown by {{@index}}
+    public void write(Appendable out, T model, int index) throws IOException {
+        execute(instructions, out, model, index);
+    }
 
+    private static <T> void execute(Instruction<T>[] instructions, Appendable out, T model, int index) throws IOException {
+        for (Instruction<T> instruction : instructions) instruction.execute(out, model, index);
     }
 
-    public void appendText(String text){
+    public interface Field<T> {
+        void append(Appendable out, T model) throws IOException;
+    }
 
+    private interface Instruction<T> {
+        void execute(Appendable out, T model, int index) throws IOException;
     }
 
+    /*
+    Binds the names of a template to the model, then compiles templates with these names
+     */
+    public static class Builder<T> {
+        private final Map<String, Instruction<T>> values = new HashMap<>();
+        private final Map<String, Predicate<T>> conditions = new HashMap<>();
+        private final Map<String, Instruction<T>> lists = new HashMap<>();
+
+        private Builder() {
+        }
+
+        public Builder<T> field(String name, Field<T> field) {
+            values.put(name, (out, model, index) -> field.append(out, model));
+            return this;
+        }
+
+        //String.valueOf of the value, "null" for null like a string concatenation
+        public Builder<T> text(String name, Function<T, ?> value) {
+            return field(name, (out, model) -> out.append(String.valueOf(value.apply(model))));
+        }
+
+        public Builder<T> number(String name, ToLongFunction<T> value) {
+            return field(name, (out, model) -> out.append(String.valueOf(value.applyAsLong(model))));
+        }
+
+        //As MoneyUtils.toString
+        public Builder<T> money(String name, Function<T, BigMoney> value) {
+            return field(name, (out, model) -> MoneyUtils.append(out, value.apply(model)));
+        }
+
+        //As MoneyUtils.toStringHtml
+        public Builder<T> moneyHtml(String name, Function<T, BigMoney> value) {
+            return field(name, (out, model) -> MoneyUtils.appendHtml(out, value.apply(model)));
+        }
+
+        //As DateUtils.getLocaleDateTimeStringShort
+        public Builder<T> date(String name, Function<T, LocalDateTime> value) {
+            return field(name, (out, model) -> DateUtils.appendLocaleDateTimeShort(out, value.apply(model)));
+        }
+
+        public Builder<T> condition(String name, Predicate<T> condition) {
+            conditions.put(name, condition);
+            return this;
+        }
+
+        //Writes the template for every element, nothing for null
+        public <E> Builder<T> each(String name, Function<T, ? extends Iterable<E>> list, ReportGenerator<E> template) {
+            lists.put(name, (out, model, index) -> {
+                Iterable<E> elements = list.apply(model);
+                if (elements == null) return;
+                int i = 1;
+                for (E element : elements) template.write(out, element, i++);
+            });
+            return this;
+        }
+
+        public ReportGenerator<T> compile(String template) {
+            //Instructions of the enclosing conditions, the innermost last
+            Deque<List<Instruction<T>>> open = new ArrayDeque<>();
+            Deque<String> openNames = new ArrayDeque<>();
+            List<Instruction<T>> current = new ArrayList<>();
+            int position = 0;
+            while (position < template.length()) {
+                int start = template.indexOf(OPEN, position);
+                if (start < 0) start = template.length();
+                if (start > position) {
+                    String text = template.substring(position, start);
+                    current.add((out, model, index) -> out.append(text));
+                }
+                if (start == template.length()) break;
+                int end = template.indexOf(CLOSE, start + OPEN.length());
+                if (end < 0) throw new IllegalArgumentException("Unclosed tag at " + start + ": " + template);
+                String tag = template.substring(start + OPEN.length(), end).trim();
+                position = end + CLOSE.length();
+
+                if (tag.equals(INDEX)) {
+                    current.add((out, model, index) -> out.append(String.valueOf(index)));
+                } else if (tag.startsWith("?")) {
+                    open.push(current);
+                    openNames.push(tag.substring(1));
+                    current = new ArrayList<>();
+                } else if (tag.startsWith("/")) {
+                    String name = tag.substring(1);
+                    if (openNames.isEmpty() || !openNames.peek().equals(name))
+                        throw new IllegalArgumentException("Unexpected end of " + name + " at " + start + ": " + template);
+                    Predicate<T> condition = lookup(conditions, openNames.pop());
+                    Instruction<T>[] body = toArray(current);
+                    current = open.pop();
+                    current.add((out, model, index) -> {
+                        if (condition.test(model)) execute(body, out, model, index);
+                    });
+                } else if (tag.startsWith("#")) {
+                    current.add(lookup(lists, tag.substring(1)));
+                } else {
+                    current.add(lookup(values, tag));
+                }
+            }
+            if (!openNames.isEmpty()) throw new IllegalArgumentException("Missing end of " + openNames.peek() + ": " + template);
+            return new ReportGenerator<>(toArray(current));
+        }
+
+        private static <V> V lookup(Map<String, V> bound, String name) {
+            V value = bound.get(name);
+            if (value == null) throw new IllegalArgumentException("Unknown template field " + name);
+            return value;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Instruction<T>[] toArray(List<Instruction<T>> instructions) {
+            return instructions.toArray((Instruction<T>[]) new Instruction<?>[0]);
+        }
+    }
 }
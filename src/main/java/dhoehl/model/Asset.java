@@ -18,6 +18,9 @@
 
 package dhoehl.model;
 
+import dhoehl.html.ReportElements;
+import dhoehl.html.ReportGenerator;
+import dhoehl.utils.MoneySum;
 import dhoehl.utils.MoneyUtils;
 import dhoehl.wrapper.ExchangeFeeMapper;
 import dhoehl.wrapper.FeeMapper;
@@ -26,28 +29,41 @@ import dhoehl.wrapper.TransactionMapper;
 import org.joda.money.BigMoney;
 import org.joda.money.CurrencyUnit;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Set;
 
 public class Asset implements Comparable<Asset> {
-    private static final String TABLE_HEAD = "<tr>" +
-            "<th>#</th>" +
-            "<th>Type</th>" +
-            "<th>Date/Time</th>" +
-            "<th>Product</th>" +
-            "<th>ISIN</th>\n" +
-            "<th>Exchange</th>\n" +
-            "<th>Quantity</th>\n" +
-            "<th>Price</th>\n" +
-            "<th>Amount local</th>\n" +
-            "<th>Exchange rate</th>\n" +
-            "<th>Exchange fee</th>\n" +
-            "<th>Amount</th>\n" +
-            "<th>Fee</th>\n" +
-            "<th>Amount total</th>\n" +
-            "</tr>\n";
+    //Compiled once, the sections of all assets are written with them
+    private static final ReportGenerator<Section> HTML = htmlBindings()
+            .text("quantity", section -> section.asset.quantity)
+            .moneyHtml("overall", section -> section.asset.getOverall())
+            .number("sells", section -> section.asset.getTradeCount(Transaction.Type.SELL))
+            .number("buys", section -> section.asset.getTradeCount(Transaction.Type.BUY))
+            .number("trades", section -> section.asset.getTradeCount())
+            .moneyHtml("profitLoss", section -> section.asset.getProfitLoss())
+            .moneyHtml("fees", section -> section.asset.getPaidFees())
+            .moneyHtml("exchangeFees", section -> section.asset.getPaidExchangeFees())
+            .moneyHtml("allFees", section -> section.asset.getPaidFees().plus(section.asset.getPaidExchangeFees()))
+            .moneyHtml("profitLossTotal", section -> section.asset.getProfitLossTotal())
+            .each("transactions", section -> section.asset.getTransactions(), Transaction.HTML_ROW)
+            .compile(ReportElements.ASSET);
+    private static final ReportGenerator<Section> HTML_YEAR = htmlBindings()
+            .number("sells", section -> section.asset.getTradeCount(Transaction.Type.SELL, section.year))
+            .number("buys", section -> section.asset.getTradeCount(Transaction.Type.BUY, section.year))
+            .number("trades", section -> section.asset.getTradeCount(section.year))
+            .moneyHtml("profitLoss", section -> section.asset.getProfitLoss(section.year))
+            .moneyHtml("fees", section -> section.asset.getPaidFees(section.year))
+            .moneyHtml("exchangeFees", section -> section.asset.getPaidExchangeFees(section.year))
+            .moneyHtml("allFees", section -> section.asset.getPaidFees(section.year).plus(section.asset.getPaidExchangeFees(section.year)))
+            .moneyHtml("profitLossTotal", section -> section.asset.getProfitLossTotal(section.year))
+            .each("transactions", section -> section.asset.getTransactions(section.year), Transaction.HTML_ROW)
+            .compile(ReportElements.ASSET_YEAR);
 
     public boolean hasErrors() {
         return profitLoss.hasError();
@@ -74,30 +90,53 @@ public class Asset implements Comparable<Asset> {
     private final FeeMapper fees;
     private final ExchangeFeeMapper exchangeFees;
     private final ProfitLossMapper profitLoss;
-    private final TransactionMapper transactions = new TransactionMapper();
+    //Profit/loss under every cost basis that is computed, including the one of profitLoss
+    private final Map<CostBasis, ProfitLossMapper> profitLosses = new EnumMap<>(CostBasis.class);
+    private final TransactionMapper transactions;
 
 
-    private BigMoney overall;
+    private final MoneySum overall;
     private BigDecimal quantity = BigDecimal.ZERO;
+    //Built on first use after the transactions changed
+    private RangeTotals rangeTotals;
+    private HoldingsTimeline holdings;
 
 
     public Asset(String isin, String name, CurrencyUnit currency) {
+        this(isin, name, currency, new TransactionStore());
+    }
+
+    /*
+    The transactions are kept in the given store, transactions of other stores are copied into it.
+    Profit/loss is computed under all given cost bases in the same pass, the first one is the one of the asset (FIFO if
+    none is given). The others are only there for comparisons.
+     */
+    public Asset(String isin, String name, CurrencyUnit currency, TransactionStore store, CostBasis... costBases) {
         this.isin = isin;
         this.name = name;
         this.type = Type.parseName(name);
         this.fees = new FeeMapper(currency);
-        this.profitLoss = new ProfitLossMapper(currency);
+        this.profitLoss = new ProfitLossMapper(currency, costBases.length > 0 ? costBases[0] : CostBasis.FIFO, store);
+        profitLosses.put(profitLoss.getCostBasis(), profitLoss);
+        for (CostBasis costBasis : costBases) {
+            if (!profitLosses.containsKey(costBasis)) profitLosses.put(costBasis, new ProfitLossMapper(currency, costBasis, store));
+        }
         this.exchangeFees = new ExchangeFeeMapper(currency);
-        this.overall = BigMoney.zero(currency);
+        this.overall = new MoneySum(currency);
+        this.transactions = new TransactionMapper(store);
     }
 
-    public void addTransaction(Transaction t) {
-        if (transactions.add(t)) {
+    public void addTransaction(Transaction transaction) {
+        //The mappers get the transaction as kept by the asset, so the realized events can reference it by its index
+        Transaction t = transactions.add(transaction);
+        if (t != null) {
+            rangeTotals = null;
+            holdings = null;
             quantity = quantity.add(t.getQuantity());
             fees.add(t);
-            profitLoss.add(t);
+            for (ProfitLossMapper mapper : profitLosses.values()) mapper.add(t);
             exchangeFees.add(t);
-            overall = overall.plus(t.getOverall());
+            t.addOverallTo(overall);
         }
     }
 
@@ -106,13 +145,56 @@ public class Asset implements Comparable<Asset> {
     }
 
     public BigMoney getOverall() {
-        return overall;
+        return overall.toBigMoney();
     }
 
     public BigMoney getProfitLoss() {
         return profitLoss.getProfitLoss();
     }
 
+    public CostBasis getCostBasis() {
+        return profitLoss.getCostBasis();
+    }
+
+    public Set<CostBasis> getCostBases() {
+        return Collections.unmodifiableSet(profitLosses.keySet());
+    }
+
+    public BigMoney getProfitLoss(CostBasis costBasis, int year) {
+        return getProfitLossMapper(costBasis).getProfitLoss(year);
+    }
+
+    public BigMoney getProfitLoss(CostBasis costBasis) {
+        return getProfitLossMapper(costBasis).getProfitLoss();
+    }
+
+    private ProfitLossMapper getProfitLossMapper(CostBasis costBasis) {
+        ProfitLossMapper mapper = profitLosses.get(costBasis);
+        if (mapper == null) throw new IllegalArgumentException("Profit/loss of " + isin + " is not computed for cost basis " + costBasis);
+        return mapper;
+    }
+
+    //Matches of sells against buys behind the profit/loss
+    public RealizedEvents getRealizedEvents() {
+        return profitLoss.getRealizedEvents();
+    }
+
+    public RealizedEvents getRealizedEvents(CostBasis costBasis) {
+        return getProfitLossMapper(costBasis).getRealizedEvents();
+    }
+
+    //Totals over arbitrary date ranges
+    public RangeTotals getRangeTotals() {
+        if (rangeTotals == null) rangeTotals = new RangeTotals(Collections.singleton(this), getCostBasis(), overall.getCurrency());
+        return rangeTotals;
+    }
+
+    //Quantity and invested capital per day
+    public HoldingsTimeline getHoldings() {
+        if (holdings == null) holdings = new HoldingsTimeline(Collections.singleton(this), getCostBasis(), overall.getCurrency());
+        return holdings;
+    }
+
     public BigMoney getProfitLossTotal(int year) {
         return getProfitLoss(year).plus(getPaidFees(year)).plus(getPaidExchangeFees(year));
     }
@@ -141,6 +223,14 @@ public class Asset implements Comparable<Asset> {
         return transactions.getTransactions();
     }
 
+    public boolean hasTransactions(int year) {
+        return transactions.hasTransactions(year);
+    }
+
+    public Transaction getLastTransaction() {
+        return transactions.getLast();
+    }
+
     public BigMoney getPaidFees(int year) {
         return fees.getFees(year);
     }
@@ -187,63 +277,37 @@ public class Asset implements Comparable<Asset> {
 
     public String toStringShort() {
 
-        return type + ": " + name + " (" + isin + "), " + quantity + " pcs. Total (Fees included): " + MoneyUtils.toString(overall) + ", Payed fees: " + fees + ", Profit/Loss (Fees not included):" + profitLoss + "\n";
+        return type + ": " + name + " (" + isin + "), " + quantity + " pcs. Total (Fees included): " + MoneyUtils.toString(getOverall()) + ", Payed fees: " + fees + ", Profit/Loss (Fees not included):" + profitLoss + "\n";
     }
 
-    public String toStringHtml(int year, String navTag) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("<h2><a href=\"#" + navTag + "\">" + getName() + "</a></h2>\n");
-        if (hasErrors()) {
-            sb.append("<p style=\"color:crimson;\">" + getError() + "<br></p>");
-        }
-        sb.append(
-                "<p>Trade count (Sells): <b>" + getTradeCount(Transaction.Type.SELL, year) + "</b></p>\n" +
-                        "<p>Trade count (Buys): <b>" + getTradeCount(Transaction.Type.BUY, year) + "</b></p>\n" +
-                        "<p>Trade count: <b>" + getTradeCount(year) + "</b></p>\n" +
-                        "<p>Profit/Loss: <b>" + MoneyUtils.toStringHtml(getProfitLoss(year)) + "</b></p>\n" +
-                        "<p>Payed transaction fees: <b>" + MoneyUtils.toStringHtml(getPaidFees(year)) + "</b></p>\n" +
-                        "<p>Payed currency exchange fees: <b>" + MoneyUtils.toStringHtml(getPaidExchangeFees(year)) + "</b></p>\n" +
-                        "<p>Payed fees: <b>" + MoneyUtils.toStringHtml(getPaidFees(year).plus(getPaidExchangeFees(year))) + "</b></p>\n" +
-                        "<p>Profit/Loss (Fees included): <b>" + MoneyUtils.toStringHtml(getProfitLossTotal(year)) + "</b></p>\n" +
-                        "<p>Trades: </p>\n" +
-                        "<table style=\"width:100%\">\n" +
-                        TABLE_HEAD
-        );
-        int i = 1;
-        for (Transaction t : getTransactions(year)) {
-            sb.append(t.toStringHtml(i++)).append("\n");
-        }
-        sb.append("</table>\n\n");
-        return sb.toString();
+    //Section of the asset for the year, the transaction table written row by row. The heading links to navLink
+    public void appendHtml(Appendable out, int year, String navLink) throws IOException {
+        HTML_YEAR.write(out, new Section(this, year, navLink));
+    }
+
+    public void appendHtml(Appendable out, String navLink) throws IOException {
+        HTML.write(out, new Section(this, 0, navLink));
+    }
+
+    private static ReportGenerator.Builder<Section> htmlBindings() {
+        return ReportGenerator.<Section>builder()
+                .text("navLink", section -> section.navLink)
+                .text("name", section -> section.asset.name)
+                .condition("hasErrors", section -> section.asset.hasErrors())
+                .text("error", section -> section.asset.getError());
     }
 
+    //What the templates of a section are executed against
+    private static class Section {
+        private final Asset asset;
+        private final int year;
+        private final String navLink;
 
-    public String toStringHtml(String navTag) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("<h2><a href=\"#" + navTag + "\">" + getName() + "</a></h2>\n");
-        if (hasErrors()) {
-            sb.append("<p style=\"color:crimson;\">" + getError() + "<br></p>");
-        }
-        sb.append("<p>Quantity: <b>" + quantity + " pcs. </b></p>\n" +
-                "<p>Total (Open position inc. all P/L and fees): <b>" + MoneyUtils.toStringHtml(overall) + "</b></p>\n" +
-                "<p>Trade count (Sells): <b>" + getTradeCount(Transaction.Type.SELL) + "</b></p>\n" +
-                "<p>Trade count (Buys): <b>" + getTradeCount(Transaction.Type.BUY) + "</b></p>\n" +
-                "<p>Trade count: <b>" + getTradeCount() + "</b></p>\n" +
-                "<p>Profit/Loss: <b>" + MoneyUtils.toStringHtml(getProfitLoss()) + "</b></p>\n" +
-                "<p>Payed transaction fees: <b>" + MoneyUtils.toStringHtml(getPaidFees()) + "</b></p>\n" +
-                "<p>Payed currency exchange fees: <b>" + MoneyUtils.toStringHtml(getPaidExchangeFees()) + "</b></p>\n" +
-                "<p>Payed fees: <b>" + MoneyUtils.toStringHtml(getPaidFees().plus(getPaidExchangeFees())) + "</b></p>\n" +
-                "<p>Profit/Loss (Fees included): <b>" + MoneyUtils.toStringHtml(getProfitLossTotal()) + "</b></p>\n" +
-                "<p>Trades: </p>\n" +
-                "<table style=\"width:100%\">\n" +
-                TABLE_HEAD
-        );
-        int i = 1;
-        for (Transaction t : getTransactions()) {
-            sb.append(t.toStringHtml(i++)).append("\n");
+        Section(Asset asset, int year, String navLink) {
+            this.asset = asset;
+            this.year = year;
+            this.navLink = navLink;
         }
-        sb.append("</table>\n\n");
-        return sb.toString();
     }
 
     @Override
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dhoehl.model;
+
+/*
+Which open buys a sell is matched against
+ */
+public enum CostBasis {
+    FIFO("First in, first out"),
+    LIFO("Last in, first out"),
+    HIFO("Highest in, first out"),
+    AVERAGE("Average cost");
+
+    private final String description;
+
+    CostBasis(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
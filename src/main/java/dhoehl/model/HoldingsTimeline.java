@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package dhoehl.model;
+
+import dhoehl.utils.DeltaTimeline;
+import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+
+/*
+Holdings over time: quantity (pieces) and invested capital at the end of every day.
+Invested capital is what the open lots did cost, buys add their amount and sells take out the cost of the sold lots
+(under the given cost basis). Of several assets the quantities and the capital are added up.
+Stored as sparse change points (see DeltaTimeline), days are expanded only when they are read.
+ */
+public class HoldingsTimeline {
+    private static final int QUANTITY = 0;
+    private static final int INVESTED = 1;
+
+    private final DeltaTimeline timeline;
+    private final CurrencyUnit currency;
+
+    public HoldingsTimeline(Collection<Asset> assets, CostBasis costBasis, CurrencyUnit currency) {
+        this.currency = currency;
+        DeltaTimeline.Builder builder = new DeltaTimeline.Builder(2);
+        for (Asset asset : assets) {
+            for (Transaction t : asset.getTransactions()) {
+                LocalDate day = t.getTimestamp().toLocalDate();
+                builder.add(day, QUANTITY, t.getQuantity());
+                if (t.getType() == Transaction.Type.BUY) builder.add(day, INVESTED, t.getAmount().getAmount().negate());
+            }
+            for (RealizedEvents.Event event : asset.getRealizedEvents(costBasis)) {
+                //The cost is negative
+                builder.add(event.getSell().getTimestamp().toLocalDate(), INVESTED, event.getCost().getAmount());
+            }
+        }
+        timeline = builder.build();
+    }
+
+    public BigDecimal getQuantity(LocalDate day) {
+        return timeline.get(day, QUANTITY);
+    }
+
+    public BigMoney getInvested(LocalDate day) {
+        return BigMoney.of(currency, timeline.get(day, INVESTED));
+    }
+
+    //Days on which the holdings changed
+    public int getChangeCount() {
+        return timeline.size();
+    }
+
+    public LocalDate getFirstDay() {
+        return timeline.getFirstDay();
+    }
+
+    /*
+    Every day of [from, to], e.g. for a chart
+     */
+    public Days daily(LocalDate from, LocalDate to) {
+        return new Days(timeline.daily(from, to));
+    }
+
+    public class Days {
+        private final DeltaTimeline.Cursor cursor;
+
+        private Days(DeltaTimeline.Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        //False once the last day is passed
+        public boolean next() {
+            return cursor.next();
+        }
+
+        public LocalDate getDate() {
+            return cursor.getDate();
+        }
+
+        public BigDecimal getQuantity() {
+            return cursor.get(QUANTITY);
+        }
+
+        public BigMoney getInvested() {
+            return BigMoney.of(currency, cursor.get(INVESTED));
+        }
+    }
+}
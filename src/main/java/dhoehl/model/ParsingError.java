@@ -18,25 +18,118 @@
 
 package dhoehl.model;
 
+import dhoehl.utils.ExceptionUtils;
+
+/*
+A row that could not be parsed. Rows found by the validation only carry the row, the column and the reason,
+the message (and the stack trace of unexpected exceptions) is built when it is asked for.
+ */
 public class ParsingError {
+    public enum Reason {
+        INVALID_DATE("Not a valid date (dd-MM-yyyy HH:mm)"),
+        INVALID_NUMBER("Not a valid number"),
+        INVALID_MONEY("Not a valid amount"),
+        UNKNOWN_CURRENCY("Unknown currency"),
+        MISSING_VALUE("Value is missing"),
+        CURRENCY_MISMATCH("Currency does not match the currency of the total"),
+        UNEXPECTED("Unexpected error");
+
+        private final String description;
+
+        Reason(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    //Row of the csv (the headline is row 1), -1 if unknown
+    private final int row;
+    private final int column;
+    private final Reason reason;
+    private final String fieldText;
+    private final String rowText;
+    private final Exception cause;
+    //Message and stack trace were given as text, they cannot be built from the fields
+    private final boolean ownText;
     private String errorMessage;
     private String stackTrace;
 
-    public ParsingError(String message, String stackTrace){
+    public ParsingError(int row, int column, Reason reason, String fieldText, String rowText, Exception cause) {
+        this.row = row;
+        this.column = column;
+        this.reason = reason;
+        this.fieldText = fieldText;
+        this.rowText = rowText;
+        this.cause = cause;
+        this.ownText = false;
+    }
+
+    /*
+    An error read back from somewhere else (e.g. a DepotSnapshot). A null message is built from the fields,
+    otherwise the message and the stack trace are taken as they are.
+     */
+    public ParsingError(int row, int column, Reason reason, String fieldText, String rowText, String message, String stackTrace) {
+        this.row = row;
+        this.column = column;
+        this.reason = reason;
+        this.fieldText = fieldText;
+        this.rowText = rowText;
+        this.cause = null;
+        this.ownText = message != null;
         this.errorMessage = message;
         this.stackTrace = stackTrace;
     }
 
+    public ParsingError(String message, String stackTrace){
+        this(-1, -1, Reason.UNEXPECTED, null, null, message, stackTrace);
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    public String getFieldText() {
+        return fieldText;
+    }
+
+    public String getRowText() {
+        return rowText;
+    }
+
+    //Whether the message and stack trace come from an exception or were given as text, instead of being built from the fields
+    public boolean hasOwnText() {
+        return ownText || cause != null;
+    }
+
     public String getErrorMessage() {
+        if (errorMessage == null) {
+            String error = cause != null && cause.getMessage() != null ? cause.getMessage() : reason.getDescription();
+            //Without a column the whole row is meant
+            String parsed = column < 0 ? "row " + row : fieldText + " in row " + row;
+            errorMessage = "Failed to parse " + parsed + " (" + rowText + ")\nError: " + error;
+        }
         return errorMessage;
     }
 
+    //Null if the error was not caused by an exception
     public String getStackTrace() {
+        if (stackTrace == null && cause != null) stackTrace = ExceptionUtils.getStackTrace(cause);
         return stackTrace;
     }
 
     @Override
     public String toString() {
-        return errorMessage;
+        return getErrorMessage();
     }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package dhoehl.model;
+
+import dhoehl.utils.CumulativeSeries;
+import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+/*
+Totals of fees, exchange fees, realized profit/loss and trade counts over any [from, to) range (e.g. a quarter, a fiscal
+year or the last twelve months), from prefix sums over time. Fees and trades count at the time of their transaction,
+profit/loss at the time of the sell. Null as from or to leaves that side of the range open.
+ */
+public class RangeTotals {
+    private final CumulativeSeries fees;
+    private final CumulativeSeries exchangeFees;
+    private final CumulativeSeries profitLoss;
+    private final CumulativeSeries buys;
+    private final CumulativeSeries sells;
+
+    /*
+    Totals of the given assets, profit/loss under the given cost basis
+     */
+    public RangeTotals(Collection<Asset> assets, CostBasis costBasis, CurrencyUnit currency) {
+        CumulativeSeries.Builder fees = new CumulativeSeries.Builder(currency);
+        CumulativeSeries.Builder exchangeFees = new CumulativeSeries.Builder(currency);
+        CumulativeSeries.Builder profitLoss = new CumulativeSeries.Builder(currency);
+        CumulativeSeries.Builder buys = new CumulativeSeries.Builder(currency);
+        CumulativeSeries.Builder sells = new CumulativeSeries.Builder(currency);
+        for (Asset asset : assets) {
+            for (Transaction t : asset.getTransactions()) {
+                LocalDateTime timestamp = t.getTimestamp();
+                fees.add(timestamp, t.getFee());
+                exchangeFees.add(timestamp, t.getExchangeFee());
+                (t.getType() == Transaction.Type.BUY ? buys : sells).add(timestamp);
+            }
+            for (RealizedEvents.Event event : asset.getRealizedEvents(costBasis)) {
+                profitLoss.add(event.getSell().getTimestamp(), event.getProfitLoss());
+            }
+        }
+        this.fees = fees.build();
+        this.exchangeFees = exchangeFees.build();
+        this.profitLoss = profitLoss.build();
+        this.buys = buys.build();
+        this.sells = sells.build();
+    }
+
+    public BigMoney getFees(LocalDateTime from, LocalDateTime to) {
+        return fees.sum(from, to);
+    }
+
+    public BigMoney getExchangeFees(LocalDateTime from, LocalDateTime to) {
+        return exchangeFees.sum(from, to);
+    }
+
+    public BigMoney getProfitLoss(LocalDateTime from, LocalDateTime to) {
+        return profitLoss.sum(from, to);
+    }
+
+    public long getTradeCount(Transaction.Type type, LocalDateTime from, LocalDateTime to) {
+        return (type == Transaction.Type.BUY ? buys : sells).count(from, to);
+    }
+
+    public long getTradeCount(LocalDateTime from, LocalDateTime to) {
+        return buys.count(from, to) + sells.count(from, to);
+    }
+}
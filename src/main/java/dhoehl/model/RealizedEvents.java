@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package dhoehl.model;
+
+import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/*
+Realized profits and losses of one asset, one event per part of a sell that was matched against (part of) a buy.
+Append only, kept in parallel primitive arrays: the sell and the buy are indices into the store of the asset, quantity,
+cost and proceeds are an unscaled long and a scale (values beyond a long are kept on the side). An Event is only a view
+of one position, so no Transaction is kept alive for an event.
+ */
+public class RealizedEvents implements Iterable<RealizedEvents.Event> {
+    public static final String CSV_HEADER = "ISIN,Product,Sell id,Sell date,Buy id,Buy date,Quantity,Cost,Proceeds,Profit/Loss,Currency,Holding period (days)";
+
+    //Value fields
+    private static final int QUANTITY = 0;
+    private static final int COST = 1;
+    private static final int PROCEEDS = 2;
+    private static final int FIELDS = 3;
+    //Marker in the scale of a value that does not fit into a long
+    private static final byte BIG_VALUE = Byte.MIN_VALUE;
+
+    private final TransactionStore store;
+    private int mSize;
+    private int[] mSells = new int[0];
+    private int[] mBuys = new int[0];
+    private short[] mYears = new short[0];
+    private int[] mHoldingMinutes = new int[0];
+    private byte[] mCurrencies = new byte[0];
+    private final long[][] mUnscaled = new long[FIELDS][0];
+    private final byte[][] mScales = new byte[FIELDS][0];
+    private final List<CurrencyUnit> mCurrencyUnits = new ArrayList<>();
+    //Key is position * FIELDS + field
+    private final Map<Long, BigDecimal> mBigValues = new HashMap<>();
+
+    //Sells and buys are referenced in the given store, those of other stores are copied into it
+    public RealizedEvents(TransactionStore store) {
+        this.store = store;
+    }
+
+    /*
+    The given quantity of the sell was matched against the buy. Cost (negative) and proceeds are in the same currency.
+     */
+    public void add(Transaction sell, Transaction buy, BigDecimal quantity, BigMoney cost, BigMoney proceeds) {
+        int position = mSize;
+        ensureCapacity(position + 1);
+        mSells[position] = index(sell);
+        mBuys[position] = index(buy);
+        LocalDateTime sold = sell.getTimestamp();
+        mYears[position] = (short) sold.getYear();
+        mHoldingMinutes[position] = (int) Math.min(Integer.MAX_VALUE, Duration.between(buy.getTimestamp(), sold).toMinutes());
+        mCurrencies[position] = currency(cost.getCurrencyUnit());
+        setValue(position, QUANTITY, quantity);
+        setValue(position, COST, cost.getAmount());
+        setValue(position, PROCEEDS, proceeds.getAmount());
+        mSize++;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public Event get(int position) {
+        checkPosition(position);
+        return new Event(position);
+    }
+
+    @Override
+    public Iterator<Event> iterator() {
+        return iterator(0, false);
+    }
+
+    //Events of sells in the given year
+    public Iterable<Event> getEvents(int year) {
+        return () -> iterator(year, true);
+    }
+
+    /*
+    One csv row per event (see CSV_HEADER), optionally only those of sells in the given year
+     */
+    public void writeCsv(Appendable out) throws IOException {
+        for (Event event : this) event.writeCsv(out);
+    }
+
+    public void writeCsv(Appendable out, int year) throws IOException {
+        for (Event event : getEvents(year)) event.writeCsv(out);
+    }
+
+    private Iterator<Event> iterator(int year, boolean filtered) {
+        return new Iterator<Event>() {
+            private int next = advance(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < mSize;
+            }
+
+            @Override
+            public Event next() {
+                if (next >= mSize) throw new NoSuchElementException();
+                Event event = new Event(next);
+                next = advance(next + 1);
+                return event;
+            }
+
+            private int advance(int position) {
+                while (filtered && position < mSize && mYears[position] != year) position++;
+                return position;
+            }
+        };
+    }
+
+    private int index(Transaction t) {
+        return t.getStore() == store ? t.getIndex() : store.add(t);
+    }
+
+    private byte currency(CurrencyUnit unit) {
+        int code = mCurrencyUnits.indexOf(unit);
+        if (code >= 0) return (byte) code;
+        if (mCurrencyUnits.size() > Byte.MAX_VALUE) throw new IllegalStateException("Too many currencies in one asset");
+        mCurrencyUnits.add(unit);
+        return (byte) (mCurrencyUnits.size() - 1);
+    }
+
+    private void setValue(int position, int field, BigDecimal value) {
+        BigInteger unscaled = value.unscaledValue();
+        if (unscaled.bitLength() < 64 && value.scale() > BIG_VALUE && value.scale() <= Byte.MAX_VALUE) {
+            mUnscaled[field][position] = unscaled.longValue();
+            mScales[field][position] = (byte) value.scale();
+        } else {
+            mScales[field][position] = BIG_VALUE;
+            mBigValues.put((long) position * FIELDS + field, value);
+        }
+    }
+
+    private BigDecimal getValue(int position, int field) {
+        byte scale = mScales[field][position];
+        if (scale == BIG_VALUE) return mBigValues.get((long) position * FIELDS + field);
+        return BigDecimal.valueOf(mUnscaled[field][position], scale);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mSells.length) return;
+        int length = Math.max(8, Math.max(mSells.length * 2, capacity));
+        mSells = Arrays.copyOf(mSells, length);
+        mBuys = Arrays.copyOf(mBuys, length);
+        mYears = Arrays.copyOf(mYears, length);
+        mHoldingMinutes = Arrays.copyOf(mHoldingMinutes, length);
+        mCurrencies = Arrays.copyOf(mCurrencies, length);
+        for (int field = 0; field < FIELDS; field++) {
+            mUnscaled[field] = Arrays.copyOf(mUnscaled[field], length);
+            mScales[field] = Arrays.copyOf(mScales[field], length);
+        }
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= mSize) throw new IndexOutOfBoundsException("Position: " + position + ", Size: " + mSize);
+    }
+
+    /*
+    View of one event, values are read from the arrays on access
+     */
+    public class Event {
+        private final int position;
+
+        private Event(int position) {
+            this.position = position;
+        }
+
+        public Transaction getSell() {
+            return store.get(mSells[position]);
+        }
+
+        //For average cost the first buy of the pooled lot
+        public Transaction getBuy() {
+            return store.get(mBuys[position]);
+        }
+
+        public int getYear() {
+            return mYears[position];
+        }
+
+        public BigDecimal getQuantity() {
+            return getValue(position, QUANTITY);
+        }
+
+        public BigMoney getCost() {
+            return BigMoney.of(mCurrencyUnits.get(mCurrencies[position]), getValue(position, COST));
+        }
+
+        public BigMoney getProceeds() {
+            return BigMoney.of(mCurrencyUnits.get(mCurrencies[position]), getValue(position, PROCEEDS));
+        }
+
+        public BigMoney getProfitLoss() {
+            return getProceeds().plus(getCost());
+        }
+
+        public Duration getHoldingPeriod() {
+            return Duration.ofMinutes(mHoldingMinutes[position]);
+        }
+
+        void writeCsv(Appendable out) throws IOException {
+            int sell = mSells[position];
+            int buy = mBuys[position];
+            BigDecimal cost = getValue(position, COST);
+            BigDecimal proceeds = getValue(position, PROCEEDS);
+            appendField(out, store.getIsin(sell)).append(',');
+            appendField(out, store.getProduct(sell)).append(',');
+            appendField(out, store.getId(sell)).append(',');
+            out.append(store.getTimestamp(sell).toString()).append(',');
+            appendField(out, store.getId(buy)).append(',');
+            out.append(store.getTimestamp(buy).toString()).append(',');
+            out.append(getQuantity().toPlainString()).append(',');
+            out.append(cost.toPlainString()).append(',');
+            out.append(proceeds.toPlainString()).append(',');
+            out.append(proceeds.add(cost).toPlainString()).append(',');
+            out.append(mCurrencyUnits.get(mCurrencies[position]).getCode()).append(',');
+            out.append(String.valueOf(mHoldingMinutes[position] / (24 * 60))).append('\n');
+        }
+    }
+
+    //Quoted if it holds a separator, a quote or a line break
+    private static Appendable appendField(Appendable out, String value) throws IOException {
+        if (value == null) return out;
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+            return out.append(value);
+        return out.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
@@ -19,27 +19,89 @@
 package dhoehl.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+/*
+Column store for csv data. Columns with few distinct values (names, currencies, ...) are dictionary encoded,
+so every distinct value is held only once. All other columns keep the raw characters of their cells in one char array.
+The header is kept as metadata and is not part of the rows.
+ */
 public class Table {
     private final List<Column> mTable;
+    private final boolean[] mDictionaryColumns;
+    private String[] mHeader = new String[0];
+    private int mRows;
 
-    public Table() {
+    public Table(int... dictionaryColumns) {
         mTable = new ArrayList<>();
+        int max = -1;
+        for (int column : dictionaryColumns) max = Math.max(max, column);
+        mDictionaryColumns = new boolean[max + 1];
+        for (int column : dictionaryColumns) mDictionaryColumns[column] = true;
+    }
+
+    public void setHeader(String[] header) {
+        mHeader = header.clone();
+    }
+
+    public String[] getHeader() {
+        return mHeader.clone();
     }
 
     public void addRow(String[] row) {
-        /* Check if there a enough columns already */
-        if (mTable.size() < row.length) {
-            for (int i = mTable.size(); i < row.length; i++) {
-                mTable.add(new Column());
-            }
-        }
         for (int i = 0; i < row.length; i++) {
-            mTable.get(i).add(row[i]);
+            addCell(i, row[i]);
+        }
+        endRow();
+    }
+
+    /*
+    Appends a cell to the given column, missing columns are created on the fly.
+    Call endRow() once all cells of a row are added.
+     */
+    public void addCell(int column, char[] buffer, int start, int end) {
+        getOrCreateColumn(column).add(buffer, start, end);
+    }
+
+    public void addCell(int column, String value) {
+        getOrCreateColumn(column).add(value);
+    }
+
+    public void endRow() {
+        mRows++;
+        //Rows with fewer cells are padded, so all columns keep the same height
+        for (Column c : mTable) {
+            if (c.size() < mRows) c.add("");
         }
     }
 
+    /*
+    Appends all rows of the other table below the rows of this one
+     */
+    public Table append(Table other) {
+        if (mHeader.length == 0) mHeader = other.mHeader;
+        for (int i = 0; i < other.mTable.size(); i++) {
+            getOrCreateColumn(i).addAll(other.mTable.get(i));
+        }
+        mRows += other.mRows;
+        for (Column c : mTable) {
+            while (c.size() < mRows) c.add("");
+        }
+        return this;
+    }
+
+    private Column getOrCreateColumn(int column) {
+        while (mTable.size() <= column) {
+            int index = mTable.size();
+            Column c = index < mDictionaryColumns.length && mDictionaryColumns[index] ? new DictionaryColumn() : new RawColumn();
+            //A new column has no cells for the rows before
+            for (int i = 0; i < mRows; i++) c.add("");
+            mTable.add(c);
+        }
+        return mTable.get(column);
+    }
+
     public String getCell(int row, int column) {
         //Sanity check
         if (!(mTable.size() > column) || !(mTable.get(column).size() > row)) {
@@ -48,16 +110,25 @@ public class Table {
         return mTable.get(column).get(row);
     }
 
-    public void deleteRow(int rowNumber) {
-        //Sanity check
-        for (Column row : mTable) {
-            if (!(row.size() > rowNumber)) {
-                throw new IndexOutOfBoundsException("Row not within bounds");
-            }
-        }
-        for (Column column : mTable) {
-            column.remove(rowNumber);
+    public void setCell(int row, int column, String value) {
+        if (!(mTable.size() > column) || !(mTable.get(column).size() > row)) {
+            throw new IndexOutOfBoundsException("Row or column not within bounds");
         }
+        mTable.get(column).set(row, value);
+    }
+
+    /*
+    Replaces the cells of a column at once, a null value keeps its cell.
+    Use this to change many cells, a raw column is then rebuilt once instead of being shifted for every cell.
+     */
+    public void setCells(int column, String[] values) {
+        if (!(mTable.size() > column)) throw new IndexOutOfBoundsException("Column not within bounds");
+        if (values.length != mRows) throw new IllegalArgumentException("Expected " + mRows + " values but got " + values.length);
+        mTable.get(column).setAll(values);
+    }
+
+    public Column getColumn(int column) {
+        return mTable.get(column);
     }
 
     public int getColumns() {
@@ -65,7 +136,7 @@ public class Table {
     }
 
     public int getRows() {
-        return mTable.get(0).size();
+        return mRows;
     }
 
     public String getRow(int i) {
@@ -75,8 +146,287 @@ public class Table {
         return sb.toString();
     }
 
-    //Wrapper to look nice
-    public static class Column extends ArrayList<String> {
+    public abstract static class Column {
+        public abstract int size();
+
+        public abstract String get(int row);
+
+        abstract void add(char[] buffer, int start, int end);
+
+        abstract void add(String value);
+
+        public boolean isEmpty(int row) {
+            return get(row).isEmpty();
+        }
+
+        abstract void set(int row, String value);
+
+        void setAll(String[] values) {
+            for (int row = 0; row < values.length; row++) {
+                if (values[row] != null) set(row, values[row]);
+            }
+        }
+
+        void addAll(Column other) {
+            for (int i = 0; i < other.size(); i++) add(other.get(i));
+        }
+    }
+
+    /*
+    Every distinct value is stored once, the rows only reference it by its code
+     */
+    public static class DictionaryColumn extends Column {
+        private String[] mEntries = new String[16];
+        private int mEntryCount;
+        //Open addressing hash table, holds entry code + 1 (0 marks an empty slot)
+        private int[] mSlots = new int[32];
+        private int[] mCodes = new int[64];
+        private int mSize;
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        @Override
+        public String get(int row) {
+            return mEntries[getCode(row)];
+        }
+
+        public int getCode(int row) {
+            if (row >= mSize) throw new IndexOutOfBoundsException("Row not within bounds");
+            return mCodes[row];
+        }
+
+        public String getEntry(int code) {
+            return mEntries[code];
+        }
+
+        public int getEntryCount() {
+            return mEntryCount;
+        }
+
+        //Code of the value or -1 if no cell holds it
+        public int find(String value) {
+            int mask = mSlots.length - 1;
+            for (int slot = mix(value.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+                int code = mSlots[slot] - 1;
+                if (code < 0 || mEntries[code].equals(value)) return code;
+            }
+        }
+
+        @Override
+        void set(int row, String value) {
+            getCode(row);
+            mCodes[row] = lookup(value);
+        }
+
+        @Override
+        void add(char[] buffer, int start, int end) {
+            addCode(lookup(buffer, start, end));
+        }
+
+        @Override
+        void add(String value) {
+            addCode(lookup(value));
+        }
+
+        @Override
+        void addAll(Column other) {
+            if (!(other instanceof DictionaryColumn)) {
+                super.addAll(other);
+                return;
+            }
+            //Translate the codes of the other dictionary once instead of looking up every cell
+            DictionaryColumn o = (DictionaryColumn) other;
+            int[] translated = new int[o.mEntryCount];
+            for (int i = 0; i < o.mEntryCount; i++) translated[i] = lookup(o.mEntries[i]);
+            ensureCodes(mSize + o.mSize);
+            for (int i = 0; i < o.mSize; i++) mCodes[mSize++] = translated[o.mCodes[i]];
+        }
+
+        private void addCode(int code) {
+            ensureCodes(mSize + 1);
+            mCodes[mSize++] = code;
+        }
+
+        private void ensureCodes(int length) {
+            if (length > mCodes.length) mCodes = Arrays.copyOf(mCodes, Math.max(mCodes.length * 2, length));
+        }
+
+        private int lookup(char[] buffer, int start, int end) {
+            //Same hash as String.hashCode, so existing entries can be rehashed without touching their chars
+            int hash = 0;
+            for (int i = start; i < end; i++) hash = 31 * hash + buffer[i];
+            int mask = mSlots.length - 1;
+            for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+                int code = mSlots[slot] - 1;
+                if (code < 0) return insert(slot, new String(buffer, start, end - start));
+                if (matches(mEntries[code], buffer, start, end)) return code;
+            }
+        }
+
+        private int lookup(String value) {
+            int mask = mSlots.length - 1;
+            for (int slot = mix(value.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+                int code = mSlots[slot] - 1;
+                if (code < 0) return insert(slot, value);
+                if (mEntries[code].equals(value)) return code;
+            }
+        }
+
+        private int insert(int slot, String value) {
+            if (mEntryCount == mEntries.length) mEntries = Arrays.copyOf(mEntries, mEntryCount * 2);
+            int code = mEntryCount++;
+            mEntries[code] = value;
+            mSlots[slot] = code + 1;
+            //Keep the load factor below 1/2
+            if (mEntryCount * 2 > mSlots.length) rehash();
+            return code;
+        }
+
+        private void rehash() {
+            mSlots = new int[mSlots.length * 2];
+            int mask = mSlots.length - 1;
+            for (int code = 0; code < mEntryCount; code++) {
+                int slot = mix(mEntries[code].hashCode()) & mask;
+                while (mSlots[slot] != 0) slot = (slot + 1) & mask;
+                mSlots[slot] = code + 1;
+            }
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean matches(String entry, char[] buffer, int start, int end) {
+            if (entry.length() != end - start) return false;
+            for (int i = start; i < end; i++) {
+                if (entry.charAt(i - start) != buffer[i]) return false;
+            }
+            return true;
+        }
+    }
+
+    /*
+    The characters of all cells are kept back to back in one array, a cell is a range of this array
+     */
+    public static class RawColumn extends Column {
+        private char[] mChars = new char[1024];
+        private int mLength;
+        private int[] mEnds = new int[64];
+        private int mSize;
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        @Override
+        public String get(int row) {
+            int start = getStart(row);
+            return new String(mChars, start, mEnds[row] - start);
+        }
+
+        //Only valid until the next cell is added
+        public char[] getChars() {
+            return mChars;
+        }
+
+        public int getStart(int row) {
+            if (row >= mSize) throw new IndexOutOfBoundsException("Row not within bounds");
+            return row == 0 ? 0 : mEnds[row - 1];
+        }
+
+        public int getEnd(int row) {
+            if (row >= mSize) throw new IndexOutOfBoundsException("Row not within bounds");
+            return mEnds[row];
+        }
+
+        @Override
+        public boolean isEmpty(int row) {
+            return getStart(row) == getEnd(row);
+        }
+
+        @Override
+        void add(char[] buffer, int start, int end) {
+            int length = end - start;
+            ensureChars(mLength + length);
+            System.arraycopy(buffer, start, mChars, mLength, length);
+            mLength += length;
+            ensureEnds(mSize + 1);
+            mEnds[mSize++] = mLength;
+        }
 
+        @Override
+        void add(String value) {
+            ensureChars(mLength + value.length());
+            value.getChars(0, value.length(), mChars, mLength);
+            mLength += value.length();
+            ensureEnds(mSize + 1);
+            mEnds[mSize++] = mLength;
+        }
+
+        @Override
+        void addAll(Column other) {
+            if (!(other instanceof RawColumn)) {
+                super.addAll(other);
+                return;
+            }
+            RawColumn o = (RawColumn) other;
+            ensureChars(mLength + o.mLength);
+            System.arraycopy(o.mChars, 0, mChars, mLength, o.mLength);
+            ensureEnds(mSize + o.mSize);
+            for (int i = 0; i < o.mSize; i++) mEnds[mSize++] = mLength + o.mEnds[i];
+            mLength += o.mLength;
+        }
+
+        //Moves the characters of all following cells, see setAll to change many cells
+        @Override
+        void set(int row, String value) {
+            int start = getStart(row);
+            int end = mEnds[row];
+            int shift = value.length() - (end - start);
+            ensureChars(mLength + shift);
+            System.arraycopy(mChars, end, mChars, end + shift, mLength - end);
+            value.getChars(0, value.length(), mChars, start);
+            mLength += shift;
+            for (int i = row; i < mSize; i++) mEnds[i] += shift;
+        }
+
+        @Override
+        void setAll(String[] values) {
+            long length = mLength;
+            for (int row = 0; row < mSize; row++) {
+                if (values[row] != null) length += values[row].length() - (mEnds[row] - getStart(row));
+            }
+            if (length > Integer.MAX_VALUE - 8) throw new OutOfMemoryError("Column too large");
+            char[] chars = new char[(int) Math.max(length, 1)];
+            int start = 0;
+            int position = 0;
+            for (int row = 0; row < mSize; row++) {
+                int end = mEnds[row];
+                if (values[row] != null) {
+                    values[row].getChars(0, values[row].length(), chars, position);
+                    position += values[row].length();
+                } else {
+                    System.arraycopy(mChars, start, chars, position, end - start);
+                    position += end - start;
+                }
+                mEnds[row] = position;
+                start = end;
+            }
+            mChars = chars;
+            mLength = position;
+        }
+
+        private void ensureChars(int length) {
+            if (length > mChars.length)
+                mChars = Arrays.copyOf(mChars, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(mChars.length * 2L, length)));
+        }
+
+        private void ensureEnds(int length) {
+            if (length > mEnds.length) mEnds = Arrays.copyOf(mEnds, Math.max(mEnds.length * 2, length));
+        }
     }
 }
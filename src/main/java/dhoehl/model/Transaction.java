@@ -19,15 +19,19 @@
 package dhoehl.model;
 
 
+import dhoehl.html.ReportElements;
+import dhoehl.html.ReportGenerator;
 import dhoehl.utils.DateUtils;
+import dhoehl.utils.ExchangeRates;
+import dhoehl.utils.MoneySum;
 import dhoehl.utils.MoneyUtils;
 import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
 
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
-import java.util.Comparator;
 import java.util.Objects;
 
 import static dhoehl.utils.DateUtils.getLocaleDateTimeStringShort;
@@ -37,113 +41,134 @@ public class Transaction implements Comparable<Transaction> {
     public static final String COLOR_BUY = "#008e00"; //008e00 //00B200
 
 
+    //Compiled once, the rows of all tables are written with it
+    static final ReportGenerator<Transaction> HTML_ROW = ReportGenerator.<Transaction>builder()
+            .field("type", (out, t) -> out.append(t.getType().getHtml()))
+            .date("timestamp", Transaction::getTimestamp)
+            .text("product", Transaction::getProduct)
+            .text("isin", Transaction::getIsin)
+            .text("exchange", Transaction::getExchange)
+            .text("quantity", Transaction::getQuantity)
+            .money("price", Transaction::getPrice)
+            .money("amountLocal", Transaction::getAmountLocal)
+            .text("exchangeRate", Transaction::getExchangeRate)
+            .money("exchangeFee", Transaction::getExchangeFee)
+            .money("amount", Transaction::getAmount)
+            .money("fee", Transaction::getFee)
+            .moneyHtml("overall", Transaction::getOverall)
+            .compile(ReportElements.TRANSACTION_ROW);
+
     public enum Type {
-        BUY, SELL;
+        BUY(COLOR_BUY), SELL(COLOR_SELL);
+
+        //Table cell, built once
+        private final String html;
+
+        Type(String color) {
+            html = "<td style=\"color:" + color + "\">" + name() + "</td>";
+        }
 
         String getHtml() {
-            if (this == BUY) return "<td style=\"color:" + COLOR_BUY + "\">" + name() + "</td>";
-            else return "<td style=\"color:" + COLOR_SELL + "\">" + name() + "</td>";
+            return html;
         }
     }
 
-    private final String id;
-    private final LocalDateTime timestamp;
-    private final String product;
-    private final String isin;
-    private final String exchange;
-    private final BigDecimal quantity;
-    private final BigMoney price;
-    private final BigMoney amount;
-    private final BigMoney amountLocal;
-    private final BigDecimal exchangeRate;
-    private final BigMoney fee;
-    private final BigMoney overall;
-    private final Type type;
-    private final BigMoney exchangeFee;
-
-    public Transaction(String id, LocalDateTime timestamp, String product, String isin, String exchange, BigDecimal quantity, BigMoney price, BigMoney amount, BigMoney amountLocal, BigDecimal exchangeRate, BigMoney fee, BigMoney overall) {
-        this.id = id;
-        this.timestamp = timestamp;
-        this.product = product;
-        this.isin = isin;
-        this.exchange = exchange;
-        this.quantity = quantity;
-        this.price = price;
-        this.amount = amount;
-        this.amountLocal = amountLocal;
-        this.exchangeRate = exchangeRate;
-        this.fee = fee;
-        this.overall = overall;
-        //For convenience
-        if (quantity.compareTo(BigDecimal.ZERO) > 0) type = Type.BUY;
-        else type = Type.SELL;
-        this.exchangeFee = calculateExchangeFee();
+    private final TransactionStore store;
+    private final int index;
+
+    //Transactions are created by their store, see TransactionStore.add and get
+    Transaction(TransactionStore store, int index) {
+        this.store = store;
+        this.index = index;
+    }
+
+    public TransactionStore getStore() {
+        return store;
+    }
+
+    public int getIndex() {
+        return index;
     }
 
     public String getId() {
-        return id;
+        return store.getId(index);
     }
 
     public LocalDateTime getTimestamp() {
-        return timestamp;
+        return store.getTimestamp(index);
     }
 
     public String getProduct() {
-        return product;
+        return store.getProduct(index);
     }
 
     public String getIsin() {
-        return isin;
+        return store.getIsin(index);
     }
 
     public String getExchange() {
-        return exchange;
+        return store.getExchange(index);
     }
 
     public BigDecimal getQuantity() {
-        return quantity;
+        return store.getDecimal(index, TransactionStore.QUANTITY);
     }
 
     public BigMoney getPrice() {
-        return price;
+        return store.getMoney(index, TransactionStore.PRICE);
     }
 
     public Type getType() {
-        return type;
+        //For convenience
+        return store.getType(index);
     }
 
     public BigMoney getAmount() {
-        return amount;
+        return store.getMoney(index, TransactionStore.AMOUNT);
     }
 
     public BigMoney getAmountLocal() {
-        return amountLocal;
+        return store.getMoney(index, TransactionStore.AMOUNT_LOCAL);
     }
 
     public BigDecimal getExchangeRate() {
-        return exchangeRate;
+        return store.getDecimal(index, TransactionStore.EXCHANGE_RATE);
     }
 
     public BigMoney getFee() {
-        BigMoney total = BigMoney.zero(overall.getCurrencyUnit());
+        BigMoney fee = store.getMoney(index, TransactionStore.FEE);
+        BigMoney total = BigMoney.zero(getCurrency());
 
         return fee != null ? total.plus(fee) : total;
     }
 
+    //Like sum.add(getFee()), without creating any values
+    public void addFeeTo(MoneySum sum) {
+        store.addMoney(index, TransactionStore.FEE, sum);
+    }
+
     public BigMoney getExchangeFee() {
-        return exchangeFee;
+        return store.getMoney(index, TransactionStore.EXCHANGE_FEE);
+    }
+
+    public void addExchangeFeeTo(MoneySum sum) {
+        store.addMoney(index, TransactionStore.EXCHANGE_FEE, sum);
     }
 
     public BigMoney calculateExchangeFee() {
+        return calculateExchangeFee(getAmountLocal(), getAmount(), getOverall(), getExchangeRate(), getQuantity());
+    }
+
+    static BigMoney calculateExchangeFee(BigMoney amountLocal, BigMoney amount, BigMoney overall, BigDecimal exchangeRate, BigDecimal quantity) {
         //These are "hidden" costs by DeGiro that are listed in their price guide but are not listet in any report clearly
         //If the currencies are different
-        if (getAmountLocal().getCurrencyUnit().compareTo(getOverall().getCurrencyUnit()) != 0) {
+        if (amountLocal.getCurrencyUnit().compareTo(overall.getCurrencyUnit()) != 0) {
 
-            BigMoney totalAmountExchanged = getAmountLocal().convertedTo(overall.getCurrencyUnit(), BigDecimal.ONE.setScale(getExchangeRate().scale(), RoundingMode.HALF_EVEN).divide(getExchangeRate(), RoundingMode.HALF_EVEN));
-            if (getType() == Transaction.Type.BUY) {
-                return totalAmountExchanged.minus(getAmount());
+            BigMoney totalAmountExchanged = ExchangeRates.get(exchangeRate, overall.getCurrencyUnit()).convert(amountLocal);
+            if (quantity.compareTo(BigDecimal.ZERO) > 0) {
+                return totalAmountExchanged.minus(amount);
             } else {
-                return getAmount().minus(totalAmountExchanged);
+                return amount.minus(totalAmountExchanged);
             }
         } else {
             return BigMoney.zero(overall.getCurrencyUnit());
@@ -151,20 +176,25 @@ public class Transaction implements Comparable<Transaction> {
     }
 
     public BigMoney getOverall() {
-        return overall;
+        return store.getMoney(index, TransactionStore.OVERALL);
+    }
+
+    public void addOverallTo(MoneySum sum) {
+        store.addMoney(index, TransactionStore.OVERALL, sum);
     }
 
-    public Transaction reduceQuantityBy(BigDecimal quantity) {
-        return new Transaction(id, timestamp, product, isin, exchange, quantity.subtract(quantity), price, amount, amountLocal, exchangeRate, fee, overall);
+    public CurrencyUnit getCurrency() {
+        return store.getCurrency(index, TransactionStore.OVERALL);
     }
 
     @Override
     public String toString() {
-        String feeString = fee == null ? MoneyUtils.toString(BigMoney.zero(overall.getCurrencyUnit())) : MoneyUtils.toString(fee);
-        return type + ": " + getLocaleDateTimeStringShort(timestamp) + " (" + product + ", " + isin + ", " + id + ") - " +
-                exchange + ", " + quantity + " pcs. at " + MoneyUtils.toString(price) + " p.p. " +
-                "Total: " + MoneyUtils.toString(amount) + ", Local: " + MoneyUtils.toString(amountLocal) + ", Exchange rate: " + exchangeRate +
-                " Fee: " + feeString + " Overall: " + MoneyUtils.toString(overall);
+        BigMoney fee = store.getMoney(index, TransactionStore.FEE);
+        String feeString = fee == null ? MoneyUtils.toString(BigMoney.zero(getOverall().getCurrencyUnit())) : MoneyUtils.toString(fee);
+        return getType() + ": " + getLocaleDateTimeStringShort(getTimestamp()) + " (" + getProduct() + ", " + getIsin() + ", " + getId() + ") - " +
+                getExchange() + ", " + getQuantity() + " pcs. at " + MoneyUtils.toString(getPrice()) + " p.p. " +
+                "Total: " + MoneyUtils.toString(getAmount()) + ", Local: " + MoneyUtils.toString(getAmountLocal()) + ", Exchange rate: " + getExchangeRate() +
+                " Fee: " + feeString + " Overall: " + MoneyUtils.toString(getOverall());
     }
 
     @Override
@@ -173,39 +203,29 @@ public class Transaction implements Comparable<Transaction> {
         if (o == null || getClass() != o.getClass()) return false;
 
         Transaction that = (Transaction) o;
+        if (store == that.store && index == that.index) return true;
 
-        if (!Objects.equals(id, that.id)) return false;
-        return timestamp.equals(that.timestamp);
+        if (!Objects.equals(getId(), that.getId())) return false;
+        return getTimestamp().equals(that.getTimestamp());
     }
 
     @Override
     public int hashCode() {
+        String id = getId();
         int result = id != null ? id.hashCode() : 0;
-        result = 31 * result + timestamp.hashCode();
+        result = 31 * result + getTimestamp().hashCode();
         return result;
     }
 
     @Override
     public int compareTo(Transaction o) {
-        return Comparator.comparing(Transaction::getTimestamp).thenComparing(Transaction::getId).compare(this,o);
-    }
-
-    public String toStringHtml(int nr) {
-        return "<tr>" +
-                "<td>" + nr + "</td>" +
-                getType().getHtml() +
-                "<td>" + getLocaleDateTimeStringShort(getTimestamp()) + "</td>" +
-                "<td>" + getProduct() + "</td>" +
-                "<td>" + getIsin() + "</td>" +
-                "<td>" + getExchange() + "</td>" +
-                "<td>" + getQuantity() + "</td>" +
-                "<td>" + MoneyUtils.toString(getPrice()) + "</td>" +
-                "<td>" + MoneyUtils.toString(getAmountLocal()) + "</td>" +
-                "<td>" + getExchangeRate() + "</td>" +
-                "<td>" + MoneyUtils.toString(getExchangeFee()) + "</td>" +
-                "<td>" + MoneyUtils.toString(getAmount()) + "</td>" +
-                "<td>" + MoneyUtils.toString(getFee()) + "</td>" +
-                "<td>" + MoneyUtils.toStringHtml(getOverall()) + "</td>" +
-                "</tr>";
+        //Timestamp, then id
+        return store.compare(index, o.store, o.index);
+    }
+
+    //Row of the transaction table, ends with a line break
+    public <A extends Appendable> A appendHtml(A out, int nr) throws IOException {
+        HTML_ROW.write(out, this, nr);
+        return out;
     }
 }
@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dhoehl.model;
+
+import dhoehl.utils.MoneySum;
+import org.joda.money.BigMoney;
+import org.joda.money.CurrencyMismatchException;
+import org.joda.money.CurrencyUnit;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/*
+Transactions in parallel primitive arrays, a Transaction is only a view of one index of a store.
+  - timestamps are minutes since the epoch
+  - order ids in the usual uuid layout are packed into two longs, other ids are dictionary encoded like all names
+  - numbers are an unscaled long and a scale, money has a currency code in addition
+Values that do not fit (seconds in a timestamp, numbers beyond a long) are kept as objects on the side.
+A store only grows, it is not thread safe.
+ */
+public class TransactionStore {
+    //Value fields, those from PRICE on are money
+    static final int QUANTITY = 0;
+    static final int EXCHANGE_RATE = 1;
+    static final int PRICE = 2;
+    static final int AMOUNT = 3;
+    static final int AMOUNT_LOCAL = 4;
+    static final int FEE = 5;
+    static final int OVERALL = 6;
+    static final int EXCHANGE_FEE = 7;
+    private static final int FIELDS = 8;
+
+    //Markers in the scale of a value
+    private static final byte NULL_VALUE = Byte.MIN_VALUE;
+    private static final byte BIG_VALUE = Byte.MIN_VALUE + 1;
+    //Marker in the minutes of a timestamp that is not a whole minute
+    private static final int OTHER_TIMESTAMP = Integer.MIN_VALUE;
+    //String code of an id packed into mIdHigh and mIdLow, -1 is null
+    private static final int PACKED_ID = -2;
+    private static final int NULL = -1;
+    private static final int UUID_LENGTH = 36;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private int mSize;
+    private int[] mIds;
+    private long[] mIdHigh;
+    private long[] mIdLow;
+    private int[] mMinutes;
+    private int[] mProducts;
+    private int[] mIsins;
+    private int[] mExchanges;
+    private final long[][] mUnscaled = new long[FIELDS][];
+    private final byte[][] mScales = new byte[FIELDS][];
+    private final byte[][] mCurrencies = new byte[FIELDS][];
+
+    private final List<String> mStrings = new ArrayList<>();
+    private final Map<String, Integer> mStringCodes = new HashMap<>();
+    private final List<CurrencyUnit> mCurrencyUnits = new ArrayList<>();
+    private final Map<Integer, LocalDateTime> mOtherTimestamps = new HashMap<>();
+    //Key is index * FIELDS + field
+    private final Map<Long, BigDecimal> mBigValues = new HashMap<>();
+
+    public TransactionStore() {
+        this(16);
+    }
+
+    public TransactionStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mIds = new int[capacity];
+        mIdHigh = new long[capacity];
+        mIdLow = new long[capacity];
+        mMinutes = new int[capacity];
+        mProducts = new int[capacity];
+        mIsins = new int[capacity];
+        mExchanges = new int[capacity];
+        for (int field = 0; field < FIELDS; field++) {
+            mUnscaled[field] = new long[capacity];
+            mScales[field] = new byte[capacity];
+            if (field >= PRICE) mCurrencies[field] = new byte[capacity];
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public Transaction get(int index) {
+        checkIndex(index);
+        return new Transaction(this, index);
+    }
+
+    /*
+    Appends a transaction and returns its index
+     */
+    public int add(String id, LocalDateTime timestamp, String product, String isin, String exchange, BigDecimal quantity, BigMoney price, BigMoney amount, BigMoney amountLocal, BigDecimal exchangeRate, BigMoney fee, BigMoney overall) {
+        int index = mSize;
+        ensureCapacity(index + 1);
+        setId(index, id);
+        setTimestamp(index, timestamp);
+        mProducts[index] = code(product);
+        mIsins[index] = code(isin);
+        mExchanges[index] = code(exchange);
+        setDecimal(index, QUANTITY, quantity);
+        setDecimal(index, EXCHANGE_RATE, exchangeRate);
+        setMoney(index, PRICE, price);
+        setMoney(index, AMOUNT, amount);
+        setMoney(index, AMOUNT_LOCAL, amountLocal);
+        setMoney(index, FEE, fee);
+        setMoney(index, OVERALL, overall);
+        setMoney(index, EXCHANGE_FEE, Transaction.calculateExchangeFee(amountLocal, amount, overall, exchangeRate, quantity));
+        mSize++;
+        return index;
+    }
+
+    /*
+    Appends a copy of the transaction, transactions of a store are copied without creating any values
+     */
+    public int add(Transaction t) {
+        TransactionStore other = t.getStore();
+        int from = t.getIndex();
+        int index = mSize;
+        ensureCapacity(index + 1);
+        mIds[index] = other.mIds[from] == PACKED_ID ? PACKED_ID : code(other.string(other.mIds[from]));
+        mIdHigh[index] = other.mIdHigh[from];
+        mIdLow[index] = other.mIdLow[from];
+        mMinutes[index] = other.mMinutes[from];
+        if (mMinutes[index] == OTHER_TIMESTAMP) mOtherTimestamps.put(index, other.mOtherTimestamps.get(from));
+        mProducts[index] = code(other.string(other.mProducts[from]));
+        mIsins[index] = code(other.string(other.mIsins[from]));
+        mExchanges[index] = code(other.string(other.mExchanges[from]));
+        for (int field = 0; field < FIELDS; field++) {
+            mUnscaled[field][index] = other.mUnscaled[field][from];
+            byte scale = other.mScales[field][from];
+            mScales[field][index] = scale;
+            if (scale == BIG_VALUE) mBigValues.put(key(index, field), other.mBigValues.get(key(from, field)));
+            if (field >= PRICE && scale != NULL_VALUE)
+                mCurrencies[field][index] = currencyCode(other.mCurrencyUnits.get(other.mCurrencies[field][from]));
+        }
+        mSize++;
+        return index;
+    }
+
+    /*
+    Order of Transaction.compareTo (timestamp, then id), without creating any values for the common case
+     */
+    public int compare(int index, TransactionStore other, int otherIndex) {
+        int c;
+        if (mMinutes[index] != OTHER_TIMESTAMP && other.mMinutes[otherIndex] != OTHER_TIMESTAMP)
+            c = Integer.compare(mMinutes[index], other.mMinutes[otherIndex]);
+        else c = getTimestamp(index).compareTo(other.getTimestamp(otherIndex));
+        if (c != 0) return c;
+        if (mIds[index] == PACKED_ID && other.mIds[otherIndex] == PACKED_ID) {
+            //Hex digits sort like their values, so the packed ids sort like their strings
+            c = Long.compareUnsigned(mIdHigh[index], other.mIdHigh[otherIndex]);
+            return c != 0 ? c : Long.compareUnsigned(mIdLow[index], other.mIdLow[otherIndex]);
+        }
+        return getId(index).compareTo(other.getId(otherIndex));
+    }
+
+    public Transaction.Type getType(int index) {
+        byte scale = mScales[QUANTITY][index];
+        int signum = scale == BIG_VALUE ? mBigValues.get(key(index, QUANTITY)).signum() : Long.signum(mUnscaled[QUANTITY][index]);
+        return signum > 0 ? Transaction.Type.BUY : Transaction.Type.SELL;
+    }
+
+    /*
+    Read only view of the transactions at the given indices, which have to be in order
+     */
+    public SortedSet<Transaction> view(int[] indices, int count) {
+        return new View(indices, 0, count);
+    }
+
+    String getId(int index) {
+        if (mIds[index] != PACKED_ID) return string(mIds[index]);
+        char[] chars = new char[UUID_LENGTH];
+        int position = 0;
+        for (int i = 0; i < 32; i++) {
+            if (i == 8 || i == 12 || i == 16 || i == 20) chars[position++] = '-';
+            long half = i < 16 ? mIdHigh[index] : mIdLow[index];
+            chars[position++] = HEX[(int) (half >>> (60 - 4 * (i % 16))) & 0xf];
+        }
+        return new String(chars);
+    }
+
+    LocalDateTime getTimestamp(int index) {
+        int minutes = mMinutes[index];
+        if (minutes == OTHER_TIMESTAMP) return mOtherTimestamps.get(index);
+        return LocalDateTime.ofEpochSecond(minutes * 60L, 0, ZoneOffset.UTC);
+    }
+
+    String getProduct(int index) {
+        return string(mProducts[index]);
+    }
+
+    String getIsin(int index) {
+        return string(mIsins[index]);
+    }
+
+    String getExchange(int index) {
+        return string(mExchanges[index]);
+    }
+
+    BigDecimal getDecimal(int index, int field) {
+        byte scale = mScales[field][index];
+        if (scale == NULL_VALUE) return null;
+        if (scale == BIG_VALUE) return mBigValues.get(key(index, field));
+        return BigDecimal.valueOf(mUnscaled[field][index], scale);
+    }
+
+    BigMoney getMoney(int index, int field) {
+        BigDecimal amount = getDecimal(index, field);
+        return amount == null ? null : BigMoney.of(mCurrencyUnits.get(mCurrencies[field][index]), amount);
+    }
+
+    //Currency of a money field, null if the money is null
+    CurrencyUnit getCurrency(int index, int field) {
+        return mScales[field][index] == NULL_VALUE ? null : mCurrencyUnits.get(mCurrencies[field][index]);
+    }
+
+    /*
+    Like sum.add(getMoney(index, field)) without creating any values, null adds nothing.
+    The money has to be in the currency of the sum.
+     */
+    void addMoney(int index, int field, MoneySum sum) {
+        byte scale = mScales[field][index];
+        if (scale == NULL_VALUE) return;
+        CurrencyUnit currency = mCurrencyUnits.get(mCurrencies[field][index]);
+        if (!currency.equals(sum.getCurrency())) throw new CurrencyMismatchException(sum.getCurrency(), currency);
+        if (scale == BIG_VALUE) sum.add(BigMoney.of(currency, mBigValues.get(key(index, field))));
+        else sum.add(mUnscaled[field][index], scale);
+    }
+
+    private void setId(int index, String id) {
+        if (id != null && id.length() == UUID_LENGTH && pack(index, id)) {
+            mIds[index] = PACKED_ID;
+        } else {
+            mIds[index] = code(id);
+        }
+    }
+
+    //Lower case hex digits in the 8-4-4-4-12 layout, false for everything else
+    private boolean pack(int index, String id) {
+        long high = 0;
+        long low = 0;
+        int digits = 0;
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char ch = id.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (ch != '-') return false;
+                continue;
+            }
+            int value;
+            if (ch >= '0' && ch <= '9') value = ch - '0';
+            else if (ch >= 'a' && ch <= 'f') value = ch - 'a' + 10;
+            else return false;
+            if (digits++ < 16) high = high << 4 | value;
+            else low = low << 4 | value;
+        }
+        mIdHigh[index] = high;
+        mIdLow[index] = low;
+        return true;
+    }
+
+    private void setTimestamp(int index, LocalDateTime timestamp) {
+        if (timestamp != null && timestamp.getSecond() == 0 && timestamp.getNano() == 0) {
+            long minutes = timestamp.toEpochSecond(ZoneOffset.UTC) / 60;
+            if (minutes > OTHER_TIMESTAMP && minutes <= Integer.MAX_VALUE) {
+                mMinutes[index] = (int) minutes;
+                return;
+            }
+        }
+        mMinutes[index] = OTHER_TIMESTAMP;
+        mOtherTimestamps.put(index, timestamp);
+    }
+
+    private void setDecimal(int index, int field, BigDecimal value) {
+        if (value == null) {
+            mScales[field][index] = NULL_VALUE;
+            return;
+        }
+        BigInteger unscaled = value.unscaledValue();
+        if (unscaled.bitLength() < 64 && value.scale() > BIG_VALUE && value.scale() <= Byte.MAX_VALUE) {
+            mUnscaled[field][index] = unscaled.longValue();
+            mScales[field][index] = (byte) value.scale();
+        } else {
+            mScales[field][index] = BIG_VALUE;
+            mBigValues.put(key(index, field), value);
+        }
+    }
+
+    private void setMoney(int index, int field, BigMoney value) {
+        if (value == null) {
+            mScales[field][index] = NULL_VALUE;
+            return;
+        }
+        mCurrencies[field][index] = currencyCode(value.getCurrencyUnit());
+        setDecimal(index, field, value.getAmount());
+    }
+
+    private int code(String s) {
+        if (s == null) return NULL;
+        Integer code = mStringCodes.get(s);
+        if (code == null) {
+            code = mStrings.size();
+            mStrings.add(s);
+            mStringCodes.put(s, code);
+        }
+        return code;
+    }
+
+    private String string(int code) {
+        return code == NULL ? null : mStrings.get(code);
+    }
+
+    private byte currencyCode(CurrencyUnit currency) {
+        int code = mCurrencyUnits.indexOf(currency);
+        if (code < 0) {
+            if (mCurrencyUnits.size() > Byte.MAX_VALUE) throw new IllegalStateException("Too many currencies in one store");
+            code = mCurrencyUnits.size();
+            mCurrencyUnits.add(currency);
+        }
+        return (byte) code;
+    }
+
+    private static long key(int index, int field) {
+        return (long) index * FIELDS + field;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) throw new IndexOutOfBoundsException("Index not within bounds");
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) return;
+        int length = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(mIds.length * 2L, capacity));
+        mIds = Arrays.copyOf(mIds, length);
+        mIdHigh = Arrays.copyOf(mIdHigh, length);
+        mIdLow = Arrays.copyOf(mIdLow, length);
+        mMinutes = Arrays.copyOf(mMinutes, length);
+        mProducts = Arrays.copyOf(mProducts, length);
+        mIsins = Arrays.copyOf(mIsins, length);
+        mExchanges = Arrays.copyOf(mExchanges, length);
+        for (int field = 0; field < FIELDS; field++) {
+            mUnscaled[field] = Arrays.copyOf(mUnscaled[field], length);
+            mScales[field] = Arrays.copyOf(mScales[field], length);
+            if (field >= PRICE) mCurrencies[field] = Arrays.copyOf(mCurrencies[field], length);
+        }
+    }
+
+    /*
+    Transactions are only created while iterating.
+    A view covers the positions [from, to) of the indices, sub sets share the array and only narrow the range.
+    Like the sub sets of a TreeSet they remember their bounds and reject elements beyond them.
+     */
+    private class View extends AbstractSet<Transaction> implements SortedSet<Transaction> {
+        private final int[] indices;
+        private final int from;
+        private final int to;
+        //Bounds of a sub set, low is part of it and high is not. Null if not bounded
+        private final Transaction low;
+        private final Transaction high;
+
+        View(int[] indices, int from, int to) {
+            this(indices, from, to, null, null);
+        }
+
+        private View(int[] indices, int from, int to, Transaction low, Transaction high) {
+            this.indices = indices;
+            this.from = from;
+            this.to = to;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        public Iterator<Transaction> iterator() {
+            return new Iterator<Transaction>() {
+                private int position = from;
+
+                @Override
+                public boolean hasNext() {
+                    return position < to;
+                }
+
+                @Override
+                public Transaction next() {
+                    if (position >= to) throw new NoSuchElementException();
+                    return get(indices[position++]);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Transaction)) return false;
+            Transaction t = (Transaction) o;
+            int position = position(t);
+            return position < to && compare(indices[position], t.getStore(), t.getIndex()) == 0;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw new UnsupportedOperationException("Read only view");
+        }
+
+        @Override
+        public Comparator<? super Transaction> comparator() {
+            //Natural order
+            return null;
+        }
+
+        @Override
+        public Transaction first() {
+            if (from == to) throw new NoSuchElementException();
+            return get(indices[from]);
+        }
+
+        @Override
+        public Transaction last() {
+            if (from == to) throw new NoSuchElementException();
+            return get(indices[to - 1]);
+        }
+
+        @Override
+        public SortedSet<Transaction> subSet(Transaction fromElement, Transaction toElement) {
+            if (fromElement.compareTo(toElement) > 0) throw new IllegalArgumentException("fromElement > toElement");
+            checkFrom(fromElement);
+            checkTo(toElement);
+            return new View(indices, position(fromElement), position(toElement), fromElement, toElement);
+        }
+
+        @Override
+        public SortedSet<Transaction> headSet(Transaction toElement) {
+            checkTo(toElement);
+            return new View(indices, from, position(toElement), low, toElement);
+        }
+
+        @Override
+        public SortedSet<Transaction> tailSet(Transaction fromElement) {
+            checkFrom(fromElement);
+            return new View(indices, position(fromElement), to, fromElement, high);
+        }
+
+        //A lower bound has to be within the range of this set
+        private void checkFrom(Transaction t) {
+            if ((low != null && t.compareTo(low) < 0) || (high != null && t.compareTo(high) >= 0))
+                throw new IllegalArgumentException("fromElement out of range");
+        }
+
+        //An upper bound may also be the upper bound of this set
+        private void checkTo(Transaction t) {
+            if ((low != null && t.compareTo(low) < 0) || (high != null && t.compareTo(high) > 0))
+                throw new IllegalArgumentException("toElement out of range");
+        }
+
+        //First position in [from, to) whose transaction is not less than the given one, to if there is none
+        private int position(Transaction t) {
+            TransactionStore store = t.getStore();
+            int index = t.getIndex();
+            int start = from;
+            int end = to;
+            while (start < end) {
+                int middle = (start + end) >>> 1;
+                if (compare(indices[middle], store, index) < 0) start = middle + 1;
+                else end = middle;
+            }
+            return start;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package dhoehl.utils;
+
+import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/*
+Prefix sums of values over time, so the total of any [from, to) range is two binary searches and a subtraction.
+The cumulative sums are fixed point longs like those of MoneySum, from the first point on where they do not fit any
+more they are kept as BigDecimal. Without values the series only counts its points.
+Built once with a Builder, the points may be added in any order.
+ */
+public class CumulativeSeries {
+    private final CurrencyUnit currency;
+    //Seconds since the epoch, ascending
+    private final long[] times;
+    //sums[i] is the sum of the first i values, exact sums from index firstExact on
+    private final long[] sums;
+    private final BigDecimal[] exactSums;
+    private final int firstExact;
+
+    private CumulativeSeries(CurrencyUnit currency, long[] times, long[] sums, BigDecimal[] exactSums, int firstExact) {
+        this.currency = currency;
+        this.times = times;
+        this.sums = sums;
+        this.exactSums = exactSums;
+        this.firstExact = firstExact;
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+    //Number of points in [from, to), null is open
+    public int count(LocalDateTime from, LocalDateTime to) {
+        return Math.max(position(to, times.length) - position(from, 0), 0);
+    }
+
+    //Sum of the values in [from, to), null is open
+    public BigMoney sum(LocalDateTime from, LocalDateTime to) {
+        int start = position(from, 0);
+        int end = Math.max(position(to, times.length), start);
+        if (end < firstExact) {
+            long a = sums[start];
+            long b = sums[end];
+            long difference = b - a;
+            //No overflow unless both operands have a different sign than the result
+            if (((b ^ a) & (b ^ difference)) >= 0) return BigMoney.of(currency, BigDecimal.valueOf(difference, MoneySum.SCALE));
+        }
+        return BigMoney.of(currency, sum(end).subtract(sum(start)));
+    }
+
+    private BigDecimal sum(int i) {
+        return i < firstExact ? BigDecimal.valueOf(sums[i], MoneySum.SCALE) : exactSums[i - firstExact];
+    }
+
+    //First point at or after the time
+    private int position(LocalDateTime time, int open) {
+        if (time == null) return open;
+        long key = time.toEpochSecond(ZoneOffset.UTC);
+        int low = 0;
+        int high = times.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] < key) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    public static class Builder {
+        private final CurrencyUnit currency;
+        private long[] times = new long[16];
+        private BigMoney[] values = new BigMoney[16];
+        private int size;
+        private boolean sorted = true;
+
+        public Builder(CurrencyUnit currency) {
+            this.currency = currency;
+        }
+
+        //A point without a value, only counted
+        public Builder add(LocalDateTime time) {
+            return add(time, null);
+        }
+
+        public Builder add(LocalDateTime time, BigMoney value) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            long key = time.toEpochSecond(ZoneOffset.UTC);
+            if (size > 0 && key < times[size - 1]) sorted = false;
+            times[size] = key;
+            values[size++] = value;
+            return this;
+        }
+
+        public CumulativeSeries build() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) order[i] = i;
+            //Stable, points at the same time keep the order they were added in
+            if (!sorted) Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+
+            long[] sortedTimes = new long[size];
+            long[] sums = new long[size + 1];
+            BigDecimal[] exactSums = null;
+            int firstExact = size + 1;
+            MoneySum sum = new MoneySum(currency);
+            for (int i = 0; i < size; i++) {
+                sortedTimes[i] = times[order[i]];
+                BigMoney value = values[order[i]];
+                if (value != null) sum.add(value);
+                if (!sum.isExact()) {
+                    sums[i + 1] = sum.getUnits();
+                } else {
+                    if (exactSums == null) {
+                        firstExact = i + 1;
+                        exactSums = new BigDecimal[size + 1 - firstExact];
+                    }
+                    exactSums[i + 1 - firstExact] = sum.getAmount();
+                }
+            }
+            return new CumulativeSeries(currency, sortedTimes, sums, exactSums, firstExact);
+        }
+    }
+}
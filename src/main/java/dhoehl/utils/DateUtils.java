@@ -18,20 +18,46 @@
 
 package dhoehl.utils;
 
+import java.io.IOException;
+import java.time.DateTimeException;
 import java.time.LocalDateTime;
 import java.time.chrono.IsoChronology;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.format.FormatStyle;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DateUtils {
+    //Localized pattern resolved once per locale, DateTimeFormatter is immutable and can be shared
+    private static final Map<Locale, DateTimeFormatter> SHORT_FORMATTERS = new ConcurrentHashMap<>();
 
     public static String getLocaleDateTimeStringShort(LocalDateTime dateTime) {
         if (dateTime != null) {
-            String dateTimePattern = DateTimeFormatterBuilder.getLocalizedDateTimePattern(FormatStyle.MEDIUM, FormatStyle.SHORT, IsoChronology.INSTANCE, Locale.getDefault());
-            return dateTime.format(DateTimeFormatter.ofPattern(dateTimePattern, Locale.getDefault()));
+            return getShortFormatter().format(dateTime);
         }
         return "";
     }
+
+    //Same as getLocaleDateTimeStringShort, appended to out
+    public static <A extends Appendable> A appendLocaleDateTimeShort(A out, LocalDateTime dateTime) throws IOException {
+        if (dateTime == null) return out;
+        try {
+            getShortFormatter().formatTo(dateTime, out);
+        } catch (DateTimeException e) {
+            //formatTo wraps the exceptions of the Appendable
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw e;
+        }
+        return out;
+    }
+
+    private static DateTimeFormatter getShortFormatter() {
+        Locale locale = Locale.getDefault();
+        DateTimeFormatter formatter = SHORT_FORMATTERS.get(locale);
+        if (formatter != null) return formatter;
+        return SHORT_FORMATTERS.computeIfAbsent(locale, l -> DateTimeFormatter.ofPattern(
+                DateTimeFormatterBuilder.getLocalizedDateTimePattern(FormatStyle.MEDIUM, FormatStyle.SHORT, IsoChronology.INSTANCE, l), l));
+    }
 }
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package dhoehl.utils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/*
+Values (several columns) that change on a few days and stay the same in between, e.g. the holdings of an asset.
+Only the change points are stored, delta encoded in one byte array:
+  per point: day (varint, days since the previous point), per column the change of the value (varint unscaled value and
+  varint scale, unscaled values beyond a long are written as bytes behind a marker)
+Every CHECKPOINT_INTERVAL points the day, the offset and the values are kept aside, so the value at a day is a binary
+search over the checkpoints and decoding at most CHECKPOINT_INTERVAL points. Days are expanded lazily by a Cursor.
+Built once with a Builder, the changes may be added in any order.
+ */
+public class DeltaTimeline {
+    private static final int CHECKPOINT_INTERVAL = 64;
+    //Zig-zag encoded unscaled value that marks a BigInteger
+    private static final long BIG_MARKER = -1L;
+
+    private final int columns;
+    private final byte[] data;
+    private final int points;
+    //Per checkpoint: day of its first point, offset of that point, day before it and the values before it
+    private final long[] checkpointDays;
+    private final int[] checkpointOffsets;
+    private final long[] checkpointPreviousDays;
+    private final BigDecimal[][] checkpointValues;
+
+    private DeltaTimeline(int columns, byte[] data, int points, long[] checkpointDays, int[] checkpointOffsets,
+                          long[] checkpointPreviousDays, BigDecimal[][] checkpointValues) {
+        this.columns = columns;
+        this.data = data;
+        this.points = points;
+        this.checkpointDays = checkpointDays;
+        this.checkpointOffsets = checkpointOffsets;
+        this.checkpointPreviousDays = checkpointPreviousDays;
+        this.checkpointValues = checkpointValues;
+    }
+
+    //Number of change points
+    public int size() {
+        return points;
+    }
+
+    //Compressed size in bytes
+    public int getEncodedSize() {
+        return data.length;
+    }
+
+    //First day with a change, null if there is none
+    public LocalDate getFirstDay() {
+        return points == 0 ? null : LocalDate.ofEpochDay(checkpointDays[0]);
+    }
+
+    /*
+    Value of the column at the end of the day, zero before the first change
+     */
+    public BigDecimal get(LocalDate day, int column) {
+        Cursor cursor = new Cursor(day.toEpochDay(), day.toEpochDay());
+        cursor.next();
+        return cursor.get(column);
+    }
+
+    /*
+    Every day of [from, to] with the values at its end
+     */
+    public Cursor daily(LocalDate from, LocalDate to) {
+        return new Cursor(from.toEpochDay(), to.toEpochDay());
+    }
+
+    /*
+    Steps over the days, the values are only decoded on days with a change
+     */
+    public class Cursor {
+        private final long last;
+        private long day;
+        private final BigDecimal[] values = new BigDecimal[columns];
+        private int offset;
+        private int point;
+        //Day of the next change point, Long.MAX_VALUE if there is none
+        private long nextDay;
+        private long previousDay;
+
+        private Cursor(long from, long to) {
+            last = to;
+            day = from - 1;
+            Arrays.fill(values, BigDecimal.ZERO);
+            //Last checkpoint at or before the first day
+            int checkpoint = -1;
+            int low = 0;
+            int high = checkpointDays.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (checkpointDays[middle] <= from) {
+                    checkpoint = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            if (checkpoint >= 0) {
+                offset = checkpointOffsets[checkpoint];
+                point = checkpoint * CHECKPOINT_INTERVAL;
+                previousDay = checkpointPreviousDays[checkpoint];
+                System.arraycopy(checkpointValues[checkpoint], 0, values, 0, columns);
+            }
+            readNextDay();
+            //Apply all changes before the first day
+            while (nextDay < from) apply();
+        }
+
+        //False once the last day is passed
+        public boolean next() {
+            if (day >= last) return false;
+            day++;
+            while (nextDay <= day) apply();
+            return true;
+        }
+
+        public LocalDate getDate() {
+            return LocalDate.ofEpochDay(day);
+        }
+
+        //Value at the end of the current day
+        public BigDecimal get(int column) {
+            return values[column];
+        }
+
+        private void readNextDay() {
+            if (point >= points) {
+                nextDay = Long.MAX_VALUE;
+                return;
+            }
+            long delta = readVarLong();
+            nextDay = previousDay + delta;
+        }
+
+        private void apply() {
+            for (int column = 0; column < columns; column++) values[column] = values[column].add(readDecimal());
+            previousDay = nextDay;
+            point++;
+            readNextDay();
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        private BigDecimal readDecimal() {
+            long zigZag = readVarLong();
+            if (zigZag == BIG_MARKER) {
+                byte[] bytes = new byte[(int) readVarLong()];
+                System.arraycopy(data, offset, bytes, 0, bytes.length);
+                offset += bytes.length;
+                return new BigDecimal(new BigInteger(bytes), unZigZag(readVarLong()));
+            }
+            int scale = unZigZag(readVarLong());
+            return BigDecimal.valueOf((zigZag >>> 1) ^ -(zigZag & 1), scale);
+        }
+    }
+
+    private static int unZigZag(long value) {
+        return (int) ((value >>> 1) ^ -(value & 1));
+    }
+
+    public static class Builder {
+        private final int columns;
+        private long[] days = new long[16];
+        private int[] changeColumns = new int[16];
+        private BigDecimal[] changes = new BigDecimal[16];
+        private int size;
+
+        public Builder(int columns) {
+            this.columns = columns;
+        }
+
+        public Builder add(LocalDate day, int column, BigDecimal change) {
+            if (column < 0 || column >= columns) throw new IndexOutOfBoundsException("Column: " + column);
+            if (size == days.length) {
+                days = Arrays.copyOf(days, size * 2);
+                changeColumns = Arrays.copyOf(changeColumns, size * 2);
+                changes = Arrays.copyOf(changes, size * 2);
+            }
+            days[size] = day.toEpochDay();
+            changeColumns[size] = column;
+            changes[size++] = change;
+            return this;
+        }
+
+        public DeltaTimeline build() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> Long.compare(days[a], days[b]));
+
+            Encoder encoder = new Encoder();
+            int points = 0;
+            long previousDay = 0;
+            BigDecimal[] values = new BigDecimal[columns];
+            Arrays.fill(values, BigDecimal.ZERO);
+            int checkpoints = 0;
+            long[] checkpointDays = new long[4];
+            int[] checkpointOffsets = new int[4];
+            long[] checkpointPreviousDays = new long[4];
+            BigDecimal[][] checkpointValues = new BigDecimal[4][];
+            BigDecimal[] deltas = new BigDecimal[columns];
+            for (int i = 0; i < size; ) {
+                //All changes of one day make one point
+                long day = days[order[i]];
+                Arrays.fill(deltas, BigDecimal.ZERO);
+                for (; i < size && days[order[i]] == day; i++) {
+                    deltas[changeColumns[order[i]]] = deltas[changeColumns[order[i]]].add(changes[order[i]]);
+                }
+                if (points % CHECKPOINT_INTERVAL == 0) {
+                    if (checkpoints == checkpointDays.length) {
+                        checkpointDays = Arrays.copyOf(checkpointDays, checkpoints * 2);
+                        checkpointOffsets = Arrays.copyOf(checkpointOffsets, checkpoints * 2);
+                        checkpointPreviousDays = Arrays.copyOf(checkpointPreviousDays, checkpoints * 2);
+                        checkpointValues = Arrays.copyOf(checkpointValues, checkpoints * 2);
+                    }
+                    checkpointDays[checkpoints] = day;
+                    checkpointOffsets[checkpoints] = encoder.size;
+                    checkpointPreviousDays[checkpoints] = previousDay;
+                    checkpointValues[checkpoints++] = values.clone();
+                }
+                encoder.writeVarLong(day - previousDay);
+                for (int column = 0; column < columns; column++) {
+                    encoder.writeDecimal(deltas[column]);
+                    values[column] = values[column].add(deltas[column]);
+                }
+                previousDay = day;
+                points++;
+            }
+            return new DeltaTimeline(columns, Arrays.copyOf(encoder.data, encoder.size), points,
+                    Arrays.copyOf(checkpointDays, checkpoints), Arrays.copyOf(checkpointOffsets, checkpoints),
+                    Arrays.copyOf(checkpointPreviousDays, checkpoints), Arrays.copyOf(checkpointValues, checkpoints));
+        }
+    }
+
+    private static class Encoder {
+        private byte[] data = new byte[64];
+        private int size;
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                write((byte) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            write((byte) value);
+        }
+
+        void writeDecimal(BigDecimal value) {
+            BigInteger unscaled = value.unscaledValue();
+            //Below 2^62 the zig-zag value is positive, so it never equals the marker
+            if (unscaled.bitLength() < 63) {
+                long l = unscaled.longValue();
+                writeVarLong((l << 1) ^ (l >> 63));
+            } else {
+                writeVarLong(BIG_MARKER);
+                byte[] bytes = unscaled.toByteArray();
+                writeVarLong(bytes.length);
+                for (byte b : bytes) write(b);
+            }
+            writeVarLong(zigZag(value.scale()));
+        }
+
+        private static long zigZag(int value) {
+            return ((long) value << 1) ^ (value >> 31);
+        }
+
+        private void write(byte b) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = b;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package dhoehl.utils;
+
+import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Shared cache of the conversions by degiro exchange rates. A rate is the price of one unit of the target currency in the
+other currency, converting multiplies by 1 / rate (with the scale of the rate, HALF_EVEN), exactly like
+money.convertedTo(target, 1 / rate). Exports repeat the same rates very often, so the division is done once per rate
+and target currency. Thread safe, used while tables are parsed and assets are built in parallel.
+ */
+public class ExchangeRates {
+    //Beyond this many conversions new rates are computed without being kept
+    private static final int MAX_ENTRIES = 64 * 1024;
+
+    private static final ConcurrentMap<CurrencyUnit, ConcurrentMap<BigDecimal, Conversion>> CONVERSIONS = new ConcurrentHashMap<>();
+    private static final AtomicInteger ENTRIES = new AtomicInteger();
+
+    private ExchangeRates() {
+    }
+
+    public static Conversion get(BigDecimal rate, CurrencyUnit target) {
+        //Rates with a different scale have a different reciprocal, BigDecimal.equals tells them apart
+        ConcurrentMap<BigDecimal, Conversion> conversions = CONVERSIONS.computeIfAbsent(target, k -> new ConcurrentHashMap<>());
+        Conversion conversion = conversions.get(rate);
+        if (conversion != null) return conversion;
+        conversion = new Conversion(target, BigDecimal.ONE.setScale(rate.scale(), RoundingMode.HALF_EVEN).divide(rate, RoundingMode.HALF_EVEN));
+        //The limit is not exact, threads adding at the same time may pass it by a few entries
+        if (ENTRIES.get() < MAX_ENTRIES) {
+            Conversion known = conversions.putIfAbsent(rate, conversion);
+            if (known != null) return known;
+            ENTRIES.incrementAndGet();
+        }
+        return conversion;
+    }
+
+    /*
+    Conversion into one currency by one rate
+     */
+    public static class Conversion {
+        private final CurrencyUnit target;
+        private final BigDecimal multiplier;
+
+        private Conversion(CurrencyUnit target, BigDecimal multiplier) {
+            this.target = target;
+            this.multiplier = multiplier;
+        }
+
+        public BigDecimal getMultiplier() {
+            return multiplier;
+        }
+
+        //Same result and same checks as money.convertedTo(target, multiplier)
+        public BigMoney convert(BigMoney money) {
+            if (money.getCurrencyUnit().equals(target)) {
+                if (multiplier.compareTo(BigDecimal.ONE) == 0) return money;
+                throw new IllegalArgumentException("Cannot convert to the same currency");
+            }
+            if (multiplier.signum() < 0) throw new IllegalArgumentException("Cannot convert using a negative conversion multiplier");
+            return BigMoney.of(target, money.getAmount().multiply(multiplier));
+        }
+    }
+}
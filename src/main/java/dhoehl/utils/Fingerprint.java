@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package dhoehl.utils;
+
+/*
+64 bit FNV-1a hash to tell whether data changed since it was last seen. Not a cryptographic hash.
+Values are added with their length (texts) or as a whole (numbers), so different sequences of values do not run into
+each other.
+ */
+public class Fingerprint {
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+    //Length of null, cannot be the length of a text
+    private static final int NULL = -1;
+
+    private long hash = OFFSET_BASIS;
+
+    public Fingerprint add(long value) {
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash ^= (value >>> shift) & 0xff;
+            hash *= PRIME;
+        }
+        return this;
+    }
+
+    public Fingerprint add(CharSequence text) {
+        if (text == null) return add(NULL);
+        add(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            hash ^= c & 0xff;
+            hash *= PRIME;
+            hash ^= c >>> 8;
+            hash *= PRIME;
+        }
+        return this;
+    }
+
+    //By the string representation, null is told apart from "null"
+    public Fingerprint add(Object value) {
+        return add(value == null ? null : value.toString());
+    }
+
+    public long get() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x", hash);
+    }
+}
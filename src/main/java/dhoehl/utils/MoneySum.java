@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dhoehl.utils;
+
+import org.joda.money.BigMoney;
+import org.joda.money.CurrencyMismatchException;
+import org.joda.money.CurrencyUnit;
+
+import java.math.BigDecimal;
+
+/*
+Mutable sum of money in one currency. The amount is a long of minor units with a fixed number of decimal places (SCALE),
+adding to it does not create any objects. Amounts with more decimal places and sums that do not fit into a long
+switch the sum over to an exact BigDecimal, so the result always equals adding up the BigMoney values.
+Converted to BigMoney only where the value leaves the accumulator.
+ */
+public class MoneySum {
+    public static final int SCALE = 8;
+    //Unscaled values with up to 18 digits always fit into a long
+    private static final int MAX_LONG_DIGITS = 18;
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L,
+            10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L, 10_000_000_000_000L, 100_000_000_000_000L,
+            1_000_000_000_000_000L, 10_000_000_000_000_000L, 100_000_000_000_000_000L, 1_000_000_000_000_000_000L
+    };
+
+    private final CurrencyUnit currency;
+    private long units;
+    //Exact amount once the long was not enough, null before
+    private BigDecimal exact;
+
+    public MoneySum(CurrencyUnit currency) {
+        this.currency = currency;
+    }
+
+    public CurrencyUnit getCurrency() {
+        return currency;
+    }
+
+    public MoneySum add(BigMoney money) {
+        checkCurrency(money.getCurrencyUnit());
+        BigDecimal amount = money.getAmount();
+        if (exact == null && amount.precision() <= MAX_LONG_DIGITS) {
+            //unscaledValue() would create a BigInteger, whole amounts are read as they are
+            long unscaled = amount.scale() == 0 ? amount.longValue() : amount.movePointRight(amount.scale()).longValue();
+            return add(unscaled, amount.scale());
+        }
+        exact = getAmount().add(amount);
+        return this;
+    }
+
+    public MoneySum add(MoneySum other) {
+        checkCurrency(other.currency);
+        if (other.exact == null) return add(other.units, SCALE);
+        exact = getAmount().add(other.exact);
+        return this;
+    }
+
+    /*
+    Adds unscaled * 10^-scale, the amount has to be in the currency of this sum
+     */
+    public MoneySum add(long unscaled, int scale) {
+        if (exact != null || !addUnits(unscaled, scale)) exact = getAmount().add(BigDecimal.valueOf(unscaled, scale));
+        return this;
+    }
+
+    public BigDecimal getAmount() {
+        return exact != null ? exact : BigDecimal.valueOf(units, SCALE);
+    }
+
+    public BigMoney toBigMoney() {
+        return BigMoney.of(currency, getAmount());
+    }
+
+    //Whether the sum left the fixed point representation, getUnits() is only valid before
+    boolean isExact() {
+        return exact != null;
+    }
+
+    long getUnits() {
+        return units;
+    }
+
+    //False (and nothing added) if the value does not fit into the fixed point representation
+    private boolean addUnits(long unscaled, int scale) {
+        long value;
+        if (unscaled == 0) {
+            return true;
+        } else if (scale == SCALE) {
+            value = unscaled;
+        } else if (scale < SCALE) {
+            if (SCALE - scale >= POWERS_OF_TEN.length) return false;
+            long factor = POWERS_OF_TEN[SCALE - scale];
+            if (unscaled > Long.MAX_VALUE / factor || unscaled < -(Long.MAX_VALUE / factor)) return false;
+            value = unscaled * factor;
+        } else {
+            if (scale - SCALE >= POWERS_OF_TEN.length) return false;
+            long factor = POWERS_OF_TEN[scale - SCALE];
+            //More decimal places than the sum has
+            if (unscaled % factor != 0) return false;
+            value = unscaled / factor;
+        }
+        long sum = units + value;
+        //Overflow if both operands have a different sign than the result
+        if (((units ^ sum) & (value ^ sum)) < 0) return false;
+        units = sum;
+        return true;
+    }
+
+    private void checkCurrency(CurrencyUnit other) {
+        if (!currency.equals(other)) throw new CurrencyMismatchException(currency, other);
+    }
+
+    @Override
+    public String toString() {
+        return MoneyUtils.toString(toBigMoney());
+    }
+}
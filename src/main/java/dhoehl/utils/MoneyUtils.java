@@ -21,39 +21,160 @@ package dhoehl.utils;
 
 import dhoehl.model.Transaction;
 import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
+import org.joda.money.format.GroupingStyle;
+import org.joda.money.format.MoneyAmountStyle;
 import org.joda.money.format.MoneyFormatter;
 import org.joda.money.format.MoneyFormatterBuilder;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/*
+Money as shown in the report: the localized amount with the currency decimal places (HALF_EVEN) and the localized
+currency symbol. The formats are built once per locale and shared, they are immutable apart from caches that are safe
+to use from several threads.
+ */
 public class MoneyUtils {
-    private static MoneyFormatter getDefaultLocaleFormatter() {
-        return new MoneyFormatterBuilder()
-                //.appendAmount(MoneyAmountStyle.LOCALIZED_NO_GROUPING)
-                .appendAmountLocalized()
-                .appendLiteral(" ")
-                .appendCurrencySymbolLocalized()
-                .toFormatter().withLocale(Locale.getDefault());
-    }
+    //Longest unscaled value of the fast path (Long.MIN_VALUE is not negated)
+    private static final int MAX_DIGITS = 19;
+    private static final Map<Locale, Format> FORMATS = new ConcurrentHashMap<>();
 
     public static String toString(BigMoney money) {
         if (money == null) return "";
-        MoneyFormatter f = getDefaultLocaleFormatter();
-        //Display with normal currency decimal places
-        return f.print(Money.of(money, RoundingMode.HALF_EVEN));
+        try {
+            return append(new StringBuilder(24), money).toString();
+        } catch (IOException e) {
+            //A StringBuilder does not throw
+            throw new UncheckedIOException(e);
+        }
     }
 
     public static String toStringHtml(BigMoney money) {
         if (money == null) return "";
-        MoneyFormatter f = getDefaultLocaleFormatter();
+        try {
+            return appendHtml(new StringBuilder(64), money).toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //Same as toString, appended to out (nothing for null)
+    public static <A extends Appendable> A append(A out, BigMoney money) throws IOException {
+        if (money != null) getFormat().print(out, money);
+        return out;
+    }
+
+    //Same as toStringHtml, appended to out (nothing for null)
+    public static <A extends Appendable> A appendHtml(A out, BigMoney money) throws IOException {
+        if (money == null) return out;
         //Display with normal currency decimal places
         if (money.isNegative())
-            return "<span  style=\"color:" + Transaction.COLOR_SELL + "\">" + f.print(Money.of(money, RoundingMode.HALF_EVEN)) + "</span >";
+            out.append("<span  style=\"color:").append(Transaction.COLOR_SELL).append("\">");
         else if (money.isPositive())
-            return "<span  style=\"color:" + Transaction.COLOR_BUY + "\">" + f.print(Money.of(money, RoundingMode.HALF_EVEN)) + "</span >";
-        else return "<span >" + f.print(Money.of(money, RoundingMode.HALF_EVEN)) + "</span >";
+            out.append("<span  style=\"color:").append(Transaction.COLOR_BUY).append("\">");
+        else out.append("<span >");
+        getFormat().print(out, money);
+        out.append("</span >");
+        return out;
+    }
+
+    private static Format getFormat() {
+        //The default locale may change at runtime, so it is looked up on every call
+        Locale locale = Locale.getDefault();
+        Format format = FORMATS.get(locale);
+        return format != null ? format : FORMATS.computeIfAbsent(locale, Format::new);
+    }
+
+    /*
+    Prints like the joda formatter (appendAmountLocalized, " ", appendCurrencySymbolLocalized) of the locale.
+    Amounts whose unscaled value fits into a long are printed straight from their digits, without the temporary Money,
+    BigMoney and Strings of the formatter. Everything else (and locales with a grouping the fast path does not know)
+    goes through the formatter.
+     */
+    private static class Format {
+        private final Locale locale;
+        private final MoneyFormatter formatter;
+        private final boolean fast;
+        private final char zero;
+        private final char negativeSign;
+        private final char decimalPoint;
+        private final char groupingChar;
+        //0 for no grouping
+        private final int groupingSize;
+        private final boolean forcedDecimalPoint;
+        private final boolean absValue;
+        private final Map<CurrencyUnit, String> symbols = new ConcurrentHashMap<>();
+
+        Format(Locale locale) {
+            this.locale = locale;
+            formatter = new MoneyFormatterBuilder()
+                    //.appendAmount(MoneyAmountStyle.LOCALIZED_NO_GROUPING)
+                    .appendAmountLocalized()
+                    .appendLiteral(" ")
+                    .appendCurrencySymbolLocalized()
+                    .toFormatter().withLocale(locale);
+            MoneyAmountStyle style = MoneyAmountStyle.LOCALIZED_GROUPING.localize(locale);
+            zero = style.getZeroCharacter();
+            negativeSign = style.getNegativeSignCharacter();
+            decimalPoint = style.getDecimalPointCharacter();
+            groupingChar = style.getGroupingCharacter();
+            forcedDecimalPoint = style.isForcedDecimalPoint();
+            absValue = style.isAbsValue();
+            int size = style.getGroupingSize();
+            int extended = style.getExtendedGroupingSize();
+            if (style.getGroupingStyle() == GroupingStyle.NONE) {
+                groupingSize = 0;
+                fast = true;
+            } else {
+                groupingSize = size;
+                //Grouping of the fraction or of differently sized groups (e.g. 12,34,567) is left to the formatter
+                fast = style.getGroupingStyle() == GroupingStyle.BEFORE_DECIMAL_POINT && size > 0 && (extended == 0 || extended == size);
+            }
+        }
+
+        void print(Appendable out, BigMoney money) throws IOException {
+            int decimalPlaces = money.getCurrencyUnit().getDecimalPlaces();
+            BigDecimal amount = decimalPlaces < 0 ? null : money.getAmount().setScale(decimalPlaces, RoundingMode.HALF_EVEN);
+            if (!fast || amount == null || amount.unscaledValue().bitLength() >= 64) {
+                formatter.printIO(out, Money.of(money, RoundingMode.HALF_EVEN));
+                return;
+            }
+            long unscaled = amount.unscaledValue().longValue();
+            if (unscaled < 0 && !absValue) out.append(negativeSign);
+
+            //Digits of the absolute value, at least one in front of the decimal point
+            char[] digits = new char[Math.max(MAX_DIGITS, decimalPlaces + 1)];
+            int length = 0;
+            for (long rest = unscaled; rest != 0 || length <= decimalPlaces; rest /= 10) {
+                digits[digits.length - ++length] = (char) (zero + Math.abs(rest % 10));
+            }
+            int start = digits.length - length;
+            int integers = length - decimalPlaces;
+            for (int i = 0; i < integers; i++) {
+                if (i > 0 && groupingSize > 0 && (integers - i) % groupingSize == 0) out.append(groupingChar);
+                out.append(digits[start + i]);
+            }
+            if (decimalPlaces > 0 || forcedDecimalPoint) out.append(decimalPoint);
+            for (int i = integers; i < length; i++) out.append(digits[start + i]);
+
+            out.append(' ');
+            out.append(getSymbol(money.getCurrencyUnit()));
+        }
 
+        private String getSymbol(CurrencyUnit currency) {
+            String symbol = symbols.get(currency);
+            if (symbol == null) {
+                symbol = currency.getSymbol(locale);
+                symbols.put(currency, symbol);
+            }
+            return symbol;
+        }
     }
 }
@@ -18,49 +18,105 @@
 
 package dhoehl.utils.csvUtils;
 
-import java.security.SecureRandom;
+import dhoehl.model.Table;
+
+import java.util.HashMap;
+import java.util.Map;
 
 public class DegiroUtils {
-    private static final String ID_TEMPLATE = "abcdef0123456789";
+    //Layout of the exported csv
+    public static final int COLUMNS = 18;
+    public static final int ID_COLUMN = 17;
+    //Date, time, product, isin, exchange and currencies repeat a lot. Order ids are (nearly) unique, they stay raw
+    public static final int[] DICTIONARY_COLUMNS = new int[]{0, 1, 2, 3, 4, 6, 8, 10, 13, 15};
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
     private static final String ID_PATTERN = "xxxxxxxx-xxxx-xxxx-xxxx-xxxxxxxxxxxx";
     private static final int ID_LENGTH = 36;
-
-    public static String alterRow(String row) {
-        row = removeQuotes(row);
-        row = addId(row);
-        return row;
-    }
+    //Marks the end of a cell while hashing, so "ab","c" and "a","bc" differ
+    private static final char CELL_SEPARATOR = '\uffff';
 
     /*
     Some trades (Everything not initiated by the user himself) do not get an id but "".
-    We just assign an id to the transaction using degiro pattern.
+    We assign an id to these transactions using degiro pattern. The id is a 128 bit hash of the row, so the same row
+    gets the same id on every import. Identical rows within one file are told apart by the number of their occurrence.
      */
-    private static String addId(String row) {
-        String[] splitted = row.split(",");
-        if (splitted.length == 18) return row;
+    public static void addIds(Table table) {
+        if (table.getColumns() <= ID_COLUMN) return;
+        Table.Column ids = table.getColumn(ID_COLUMN);
+        //Created on the first row without an id, null keeps the id of a row
+        String[] added = null;
 
-        SecureRandom sr = new SecureRandom();
-        StringBuilder sb = new StringBuilder(row);
-        for (int i = 0; i < ID_LENGTH; i++) {
-            if (ID_PATTERN.charAt(i) == '-') sb.append("-");
-            else sb.append(ID_TEMPLATE.charAt(sr.nextInt(ID_TEMPLATE.length())));
+        Map<String, Integer> occurrences = new HashMap<>();
+        char[] id = new char[ID_LENGTH];
+        for (int row = 0; row < table.getRows(); row++) {
+            if (!ids.isEmpty(row)) continue;
+
+            RowHash hash = new RowHash();
+            for (int column = 0; column < ID_COLUMN; column++) {
+                Table.Column c = table.getColumn(column);
+                if (c instanceof Table.RawColumn) {
+                    Table.RawColumn raw = (Table.RawColumn) c;
+                    char[] chars = raw.getChars();
+                    for (int i = raw.getStart(row); i < raw.getEnd(row); i++) hash.add(chars[i]);
+                } else {
+                    String cell = c.get(row);
+                    for (int i = 0; i < cell.length(); i++) hash.add(cell.charAt(i));
+                }
+                hash.add(CELL_SEPARATOR);
+            }
+
+            String rowId = formatId(id, hash.h1, hash.h2);
+            Integer occurrence = occurrences.get(rowId);
+            occurrences.put(rowId, occurrence == null ? 1 : occurrence + 1);
+            if (occurrence != null) {
+                rowId = formatId(id, hash.h1 ^ occurrence * 0x9e3779b97f4a7c15L, hash.h2 + occurrence);
+            }
+            if (added == null) added = new String[table.getRows()];
+            added[row] = rowId;
         }
-        return sb.toString();
+        //Nothing to do if every row has an id
+        if (added != null) table.setCells(ID_COLUMN, added);
     }
 
     /*
-    For some reason Degiro uses quotes around name cells that contain a comma where the comma already is the seperator inside the csv
-    To make String.split work this methods replaces all commas within the name tag with dots and removes the quotation marks
+    Two independent 64 bit hashes of the characters of a row, FNV-1a and a murmur like multiply and rotate
      */
-    private static String removeQuotes(String row) {
-        String[] splitted = row.split("\"");
-        if (splitted.length == 1) return row;
+    private static class RowHash {
+        private long h1 = 0xcbf29ce484222325L;
+        private long h2 = 0x84222325cbf29ce4L;
 
-        if (splitted.length == 3) {
-            splitted[1] = splitted[1].replaceAll(",", ".");
-        } else {
-            throw new UnsupportedOperationException("Unsupported CSV document found");
+        void add(char c) {
+            h1 = (h1 ^ c) * 0x100000001b3L;
+            h2 = Long.rotateLeft(h2 ^ c * 0xc2b2ae3d27d4eb4fL, 31) * 0x9e3779b97f4a7c15L;
         }
-        return splitted[0] + splitted[1] + splitted[2];
+    }
+
+    private static String formatId(char[] id, long h1, long h2) {
+        //Finalize both halves (murmur3 fmix64) and let them depend on each other
+        h1 = mix(h1 + h2);
+        h2 = mix(h2 + h1);
+        long bits = h1;
+        int nibble = 0;
+        for (int i = 0; i < ID_LENGTH; i++) {
+            if (ID_PATTERN.charAt(i) == '-') {
+                id[i] = '-';
+                continue;
+            }
+            if (nibble == 16) bits = h2;
+            id[i] = HEX[(int) (bits >>> 60)];
+            bits <<= 4;
+            nibble++;
+        }
+        return new String(id);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
     }
 }
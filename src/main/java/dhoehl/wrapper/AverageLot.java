@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dhoehl.wrapper;
+
+import dhoehl.model.Transaction;
+import org.joda.money.BigMoney;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.NoSuchElementException;
+
+/*
+All open buys of an asset pooled into one lot (average cost). Keeps the running quantity and cost, a buy adds to them
+and a sold part is valued at the average cost per piece.
+ */
+class AverageLot extends Lot implements Lots {
+    @Override
+    public void add(Transaction buy) {
+        if (isEmpty()) {
+            set(buy);
+        } else {
+            quantity = quantity.add(buy.getQuantity().abs());
+            cost = cost.plus(buy.getAmount());
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return quantity == null;
+    }
+
+    @Override
+    public Lot next() {
+        if (isEmpty()) throw new NoSuchElementException();
+        return this;
+    }
+
+    @Override
+    public void removeNext() {
+        if (isEmpty()) throw new NoSuchElementException();
+        clear();
+    }
+
+    @Override
+    BigMoney getCost(BigDecimal part) {
+        return cost.multipliedBy(part).dividedBy(quantity, RoundingMode.HALF_EVEN);
+    }
+}
@@ -20,6 +20,7 @@ package dhoehl.wrapper;
 
 
 import dhoehl.model.Transaction;
+import dhoehl.utils.MoneySum;
 import dhoehl.utils.MoneyUtils;
 import org.joda.money.BigMoney;
 import org.joda.money.CurrencyUnit;
@@ -27,7 +28,7 @@ import org.joda.money.CurrencyUnit;
 import java.util.HashMap;
 
 public class ExchangeFeeMapper {
-    private final HashMap<Integer, BigMoney> mExchangeFeeMap = new HashMap<>();
+    private final HashMap<Integer, MoneySum> mExchangeFeeMap = new HashMap<>();
     private final CurrencyUnit currency;
 
     public ExchangeFeeMapper(CurrencyUnit currency) {
@@ -37,22 +38,21 @@ public class ExchangeFeeMapper {
 
     public void add(Transaction t) {
         int year = t.getTimestamp().getYear();
-        mExchangeFeeMap.computeIfAbsent(year, k -> BigMoney.zero(t.getExchangeFee().getCurrencyUnit()));
-        mExchangeFeeMap.put(year, mExchangeFeeMap.get(year).plus(t.getExchangeFee()));
+        t.addExchangeFeeTo(mExchangeFeeMap.computeIfAbsent(year, k -> new MoneySum(t.getCurrency())));
     }
 
 
     public BigMoney getExchangeFees(int year) {
-        BigMoney total = BigMoney.zero(currency);
-        return mExchangeFeeMap.get(year) == null ? total : total.plus(mExchangeFeeMap.get(year));
+        MoneySum total = new MoneySum(currency);
+        return mExchangeFeeMap.get(year) == null ? total.toBigMoney() : total.add(mExchangeFeeMap.get(year)).toBigMoney();
     }
 
     public BigMoney getExchangeFees() {
-        BigMoney total = BigMoney.zero(currency);
-        for (BigMoney m : mExchangeFeeMap.values()) {
-            total = total.plus(m);
+        MoneySum total = new MoneySum(currency);
+        for (MoneySum m : mExchangeFeeMap.values()) {
+            total.add(m);
         }
-        return total;
+        return total.toBigMoney();
     }
 
     @Override
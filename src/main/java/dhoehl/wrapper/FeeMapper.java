@@ -20,6 +20,7 @@ package dhoehl.wrapper;
 
 
 import dhoehl.model.Transaction;
+import dhoehl.utils.MoneySum;
 import dhoehl.utils.MoneyUtils;
 import org.joda.money.BigMoney;
 import org.joda.money.CurrencyUnit;
@@ -27,7 +28,7 @@ import org.joda.money.CurrencyUnit;
 import java.util.HashMap;
 
 public class FeeMapper {
-    private final HashMap<Integer, BigMoney> mFeeMap = new HashMap<>();
+    private final HashMap<Integer, MoneySum> mFeeMap = new HashMap<>();
     private CurrencyUnit currency;
 
     public FeeMapper(CurrencyUnit currency) {
@@ -38,23 +39,21 @@ public class FeeMapper {
     public void add(Transaction t) {
         int year = t.getTimestamp().getYear();
 
-        if (t.getFee() != null) {
-            mFeeMap.computeIfAbsent(year, k -> BigMoney.zero(t.getFee().getCurrencyUnit()));
-            mFeeMap.put(year, mFeeMap.get(year).plus(t.getFee()));
-        }
+        //Fees are in the currency of the overall amount, a missing fee is zero
+        t.addFeeTo(mFeeMap.computeIfAbsent(year, k -> new MoneySum(t.getCurrency())));
     }
 
     public BigMoney getFees(int year) {
-        BigMoney total = BigMoney.zero(currency);
-        return mFeeMap.get(year) == null ? total : total.plus(mFeeMap.get(year));
+        MoneySum total = new MoneySum(currency);
+        return mFeeMap.get(year) == null ? total.toBigMoney() : total.add(mFeeMap.get(year)).toBigMoney();
     }
 
     public BigMoney getFees() {
-        BigMoney total = BigMoney.zero(currency);
-        for (BigMoney m : mFeeMap.values()) {
-            total = total.plus(m);
+        MoneySum total = new MoneySum(currency);
+        for (MoneySum m : mFeeMap.values()) {
+            total.add(m);
         }
-        return total;
+        return total.toBigMoney();
     }
 
     @Override
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dhoehl.wrapper;
+
+import dhoehl.model.Transaction;
+import dhoehl.utils.ExchangeRates;
+import org.joda.money.BigMoney;
+
+import java.math.BigDecimal;
+
+/*
+What is left of a buy: the open quantity and what it did cost (negative, in the currency of the asset).
+Price and exchange rate of the buy value the parts of the lot that are sold.
+Lots are mutable and reused by their Lots once they are removed.
+ */
+class Lot {
+    BigDecimal quantity;
+    BigMoney cost;
+    private BigMoney price;
+    //By the exchange rate at the time of the buy
+    private ExchangeRates.Conversion conversion;
+    private Transaction buy;
+
+    void set(Transaction buy) {
+        quantity = buy.getQuantity().abs();
+        cost = buy.getAmount();
+        price = buy.getPrice();
+        conversion = ExchangeRates.get(buy.getExchangeRate(), cost.getCurrencyUnit());
+        this.buy = buy;
+    }
+
+    void clear() {
+        quantity = null;
+        cost = null;
+        price = null;
+        conversion = null;
+        buy = null;
+    }
+
+    BigDecimal getQuantity() {
+        return quantity;
+    }
+
+    BigMoney getCost() {
+        return cost;
+    }
+
+    //The buy of the lot, the first one if several buys are pooled
+    Transaction getBuy() {
+        return buy;
+    }
+
+    /*
+    Cost of the given part of the lot, valued at the price and rate of the buy
+     */
+    BigMoney getCost(BigDecimal part) {
+        return conversion.convert(price.multipliedBy(part.negate()));
+    }
+
+    /*
+    Takes the given part (less than the open quantity) with the given cost out of the lot
+     */
+    void reduce(BigDecimal part, BigMoney partCost) {
+        quantity = quantity.subtract(part);
+        cost = cost.minus(partCost);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dhoehl.wrapper;
+
+import dhoehl.model.Transaction;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/*
+Open buys of an asset, the one with the highest cost per piece first (highest in, first out).
+Binary heap keyed by the cost per piece at the time of the buy, of equal costs the older buy comes first.
+Selling part of a lot does not move it, its key stays the cost per piece of the buy.
+ */
+class LotHeap implements Lots {
+    private Lot[] mLots = new Lot[16];
+    private BigDecimal[] mUnitCosts = new BigDecimal[16];
+    private int mSize;
+
+    @Override
+    public void add(Transaction buy) {
+        if (mSize == mLots.length) {
+            mLots = Arrays.copyOf(mLots, mSize * 2);
+            mUnitCosts = Arrays.copyOf(mUnitCosts, mSize * 2);
+        }
+        Lot lot = mLots[mSize];
+        if (lot == null) lot = new Lot();
+        lot.set(buy);
+        //Costs are negative, the highest cost per piece has the lowest amount
+        BigDecimal unitCost = lot.getCost().getAmount().negate().divide(lot.getQuantity(), MathContext.DECIMAL64);
+        siftUp(mSize++, lot, unitCost);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    @Override
+    public Lot next() {
+        if (mSize == 0) throw new NoSuchElementException();
+        return mLots[0];
+    }
+
+    @Override
+    public void removeNext() {
+        if (mSize == 0) throw new NoSuchElementException();
+        Lot removed = mLots[0];
+        removed.clear();
+        mSize--;
+        if (mSize > 0) siftDown(0, mLots[mSize], mUnitCosts[mSize]);
+        //Keep the lot object for the next buy
+        mLots[mSize] = removed;
+        mUnitCosts[mSize] = null;
+    }
+
+    private void siftUp(int i, Lot lot, BigDecimal unitCost) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(lot, unitCost, mLots[parent], mUnitCosts[parent])) break;
+            mLots[i] = mLots[parent];
+            mUnitCosts[i] = mUnitCosts[parent];
+            i = parent;
+        }
+        mLots[i] = lot;
+        mUnitCosts[i] = unitCost;
+    }
+
+    private void siftDown(int i, Lot lot, BigDecimal unitCost) {
+        int half = mSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < mSize && before(mLots[right], mUnitCosts[right], mLots[child], mUnitCosts[child])) child = right;
+            if (!before(mLots[child], mUnitCosts[child], lot, unitCost)) break;
+            mLots[i] = mLots[child];
+            mUnitCosts[i] = mUnitCosts[child];
+            i = child;
+        }
+        mLots[i] = lot;
+        mUnitCosts[i] = unitCost;
+    }
+
+    private static boolean before(Lot a, BigDecimal aCost, Lot b, BigDecimal bCost) {
+        int c = aCost.compareTo(bCost);
+        return c != 0 ? c > 0 : a.getBuy().compareTo(b.getBuy()) < 0;
+    }
+}
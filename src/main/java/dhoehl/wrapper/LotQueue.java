@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dhoehl.wrapper;
+
+import dhoehl.model.Transaction;
+
+import java.util.NoSuchElementException;
+
+/*
+Open buys of an asset in the order of their transactions. Backed by a ring buffer of mutable lots, used as a queue
+(first in, first out) or as a stack (last in, first out).
+The lot objects are reused once they are removed, so matching does not allocate besides the BigDecimal arithmetic.
+ */
+class LotQueue implements Lots {
+    private final boolean lastInFirstOut;
+    private Lot[] mLots = new Lot[16];
+    private int mHead;
+    private int mSize;
+
+    LotQueue(boolean lastInFirstOut) {
+        this.lastInFirstOut = lastInFirstOut;
+    }
+
+    /*
+    Buys arrive in order, a buy older than the last lot is moved to its place
+     */
+    @Override
+    public void add(Transaction buy) {
+        if (mSize == mLots.length) grow();
+        int position = mSize;
+        while (position > 0 && get(position - 1).getBuy().compareTo(buy) > 0) position--;
+        //Reuse the lot object that is lying behind the last one
+        Lot lot = mLots[slot(mSize)];
+        if (lot == null) lot = new Lot();
+        for (int i = mSize; i > position; i--) mLots[slot(i)] = mLots[slot(i - 1)];
+        mLots[slot(position)] = lot;
+        mSize++;
+        lot.set(buy);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    @Override
+    public Lot next() {
+        if (mSize == 0) throw new NoSuchElementException();
+        return get(lastInFirstOut ? mSize - 1 : 0);
+    }
+
+    @Override
+    public void removeNext() {
+        if (mSize == 0) throw new NoSuchElementException();
+        if (lastInFirstOut) {
+            get(mSize - 1).clear();
+        } else {
+            mLots[mHead].clear();
+            mHead = slot(1);
+        }
+        mSize--;
+    }
+
+    private Lot get(int i) {
+        return mLots[slot(i)];
+    }
+
+    private int slot(int i) {
+        return (mHead + i) & (mLots.length - 1);
+    }
+
+    private void grow() {
+        //Unroll the ring, the head starts at 0 again
+        Lot[] lots = new Lot[mLots.length * 2];
+        for (int i = 0; i < mSize; i++) lots[i] = get(i);
+        mLots = lots;
+        mHead = 0;
+    }
+}
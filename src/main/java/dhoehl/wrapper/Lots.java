@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package dhoehl.wrapper;
+
+import dhoehl.model.CostBasis;
+import dhoehl.model.Transaction;
+
+/*
+Open buys of an asset. Sells are matched against next() until they are complete or no lot is left,
+a lot that is sold completely is removed, a partly sold one is reduced in place.
+ */
+interface Lots {
+    void add(Transaction buy);
+
+    boolean isEmpty();
+
+    //The lot the next sell is matched against
+    Lot next();
+
+    void removeNext();
+
+    static Lots create(CostBasis costBasis) {
+        switch (costBasis) {
+            case LIFO:
+                return new LotQueue(true);
+            case HIFO:
+                return new LotHeap();
+            case AVERAGE:
+                return new AverageLot();
+            default:
+                return new LotQueue(false);
+        }
+    }
+}
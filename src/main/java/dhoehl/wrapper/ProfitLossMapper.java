@@ -19,33 +19,55 @@
 package dhoehl.wrapper;
 
 
+import dhoehl.model.CostBasis;
+import dhoehl.model.RealizedEvents;
 import dhoehl.model.Transaction;
+import dhoehl.model.TransactionStore;
+import dhoehl.utils.ExchangeRates;
+import dhoehl.utils.MoneySum;
 import dhoehl.utils.MoneyUtils;
 import org.joda.money.BigMoney;
 import org.joda.money.CurrencyUnit;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TreeSet;
 
 public class ProfitLossMapper {
-    private final HashMap<Integer, BigMoney> mProfitLossMap = new HashMap<>();
-    //This stores all buys, if there is a sell the first buy in the queue is the one that has to be used against the sell
-    private final TreeSet<Transaction> mSellQueue = new TreeSet<>();
+    private final HashMap<Integer, MoneySum> mProfitLossMap = new HashMap<>();
+    //This stores all open buys, if there is a sell the next lot is the one that has to be used against the sell
+    private final Lots mLots;
 
     private final CurrencyUnit currency;
+    private final CostBasis costBasis;
+    //Every match of a sell against a buy
+    private final RealizedEvents mEvents;
 
     private String error;
 
     public ProfitLossMapper(CurrencyUnit currency) {
+        this(currency, CostBasis.FIFO);
+    }
+
+    public ProfitLossMapper(CurrencyUnit currency, CostBasis costBasis) {
+        this(currency, costBasis, new TransactionStore());
+    }
+
+    //The realized events reference the transactions in the given store
+    public ProfitLossMapper(CurrencyUnit currency, CostBasis costBasis, TransactionStore store) {
         this.currency = currency;
+        this.costBasis = costBasis;
+        this.mLots = Lots.create(costBasis);
+        this.mEvents = new RealizedEvents(store);
+    }
+
+    public CostBasis getCostBasis() {
+        return costBasis;
     }
 
     public void add(Transaction t) {
         //If this was a buy, add it to the queue, as this will be used to sell and calculate profit loss
-        if (t.getType() == Transaction.Type.BUY) mSellQueue.add(t);
+        if (t.getType() == Transaction.Type.BUY) mLots.add(t);
         else addProfitLoss(t);
     }
 
@@ -60,57 +82,70 @@ public class ProfitLossMapper {
     private void addProfitLoss(Transaction t) {
         //Some transactions (Auto generated ones) might have a quantity of zero. This is not really a sell
         if (t.getType() == Transaction.Type.SELL && t.getQuantity().abs().compareTo(BigDecimal.ZERO) > 0) {
+            int year = t.getTimestamp().getYear();
+            //What is left of the sell, the last part gets the remaining proceeds so they add up to the amount
+            BigDecimal open = t.getQuantity().abs();
+            BigMoney proceeds = t.getAmount();
+            ExchangeRates.Conversion conversion = null;
             //Now we have multiple possible scenarios
-            //1. Top quantity is > sell quantity -> Sell and deduct quantity from top item
-            //2. Top quantity is == sell quantity -> Sell and remove top item
-            //3. Top quantity is < sell quantity -> Sell top quantity, deduct sold quantity from to sell quantity, remove top item, repeat process with next item (if there is a next item)
-            while (mSellQueue.size() > 0 && t.getQuantity().abs().compareTo(BigDecimal.ZERO) > 0) {
-                //Get the first element, size is >0 so this does exist
-                Transaction top = mSellQueue.first();
-                int year = t.getTimestamp().getYear();
+            //1. Lot quantity is > sell quantity -> Sell and deduct quantity from the lot
+            //2. Lot quantity is == sell quantity -> Sell and remove the lot
+            //3. Lot quantity is < sell quantity -> Sell the lot, deduct its quantity from the sell quantity, remove the lot, repeat with the next one (if there is one)
+            //Which lot is next depends on the cost basis
+            while (!mLots.isEmpty() && open.signum() > 0) {
+                Lot lot = mLots.next();
+                MoneySum sum = getProfitLossSum(year, lot.getCost().getCurrencyUnit());
+                int compared = lot.getQuantity().compareTo(open);
                 //Scenario 2
-                if (top.getQuantity().abs().compareTo(t.getQuantity().abs()) == 0) {
-                    mProfitLossMap.computeIfAbsent(year, k -> BigMoney.zero(top.getAmount().getCurrencyUnit()));
-                    mProfitLossMap.put(year, mProfitLossMap.get(year).plus(top.getAmount()).plus(t.getAmount()));
-                    //Remove the old one, add the reduced new one
-                    mSellQueue.remove(top);
-                    t = t.reduceQuantityBy(t.getQuantity().abs());
+                if (compared == 0) {
+                    sum.add(lot.getCost()).add(proceeds);
+                    mEvents.add(t, lot.getBuy(), open, lot.getCost(), proceeds);
+                    mLots.removeNext();
+                    open = BigDecimal.ZERO;
                     //Scenario 1
-                } else if (top.getQuantity().abs().compareTo(t.getQuantity().abs()) > 0) {
-                    BigMoney lossProfit = top.getPrice().multipliedBy(t.getQuantity()).convertedTo(t.getAmount().getCurrencyUnit(), BigDecimal.ONE.setScale(top.getExchangeRate().scale(), RoundingMode.HALF_EVEN).divide(top.getExchangeRate(), RoundingMode.HALF_EVEN));
-                    mProfitLossMap.computeIfAbsent(year, k -> BigMoney.zero(top.getAmount().getCurrencyUnit()));
-                    mProfitLossMap.put(year, mProfitLossMap.get(year).plus(lossProfit).plus(t.getAmount()));
-                    //Remove the old one, add the reduced new one
-                    mSellQueue.remove(top);
-                    t = t.reduceQuantityBy(t.getQuantity().abs());
-                    mSellQueue.add(top.reduceQuantityBy(t.getQuantity().abs()));
+                } else if (compared > 0) {
+                    BigMoney cost = lot.getCost(open);
+                    sum.add(cost).add(proceeds);
+                    mEvents.add(t, lot.getBuy(), open, cost, proceeds);
+                    lot.reduce(open, cost);
+                    open = BigDecimal.ZERO;
                     //Scenario 3
                 } else {
-                    BigMoney lossProfit = t.getPrice().multipliedBy(top.getQuantity()).convertedTo(t.getAmount().getCurrencyUnit(), BigDecimal.ONE.setScale(t.getExchangeRate().scale(), RoundingMode.HALF_EVEN).divide(t.getExchangeRate(), RoundingMode.HALF_EVEN));
-                    mProfitLossMap.computeIfAbsent(year, k -> BigMoney.zero(top.getAmount().getCurrencyUnit()));
-                    mProfitLossMap.put(year, mProfitLossMap.get(year).plus(top.getAmount()).plus(lossProfit));
-                    mSellQueue.remove(top);
-                    t = t.reduceQuantityBy(top.getQuantity().abs());
+                    if (conversion == null) conversion = ExchangeRates.get(t.getExchangeRate(), proceeds.getCurrencyUnit());
+                    BigMoney part = conversion.convert(t.getPrice().multipliedBy(lot.getQuantity()));
+                    sum.add(lot.getCost()).add(part);
+                    mEvents.add(t, lot.getBuy(), lot.getQuantity(), lot.getCost(), part);
+                    open = open.subtract(lot.getQuantity());
+                    proceeds = proceeds.minus(part);
+                    mLots.removeNext();
                 }
             }
-            if (t.getQuantity().compareTo(BigDecimal.ZERO) < 0) {
+            if (open.signum() > 0) {
                 error = "Not enough past buys to complete all sells ("+t.getProduct()+", "+t.getIsin()+"). Profit Loss calculation for this ISIN WILL BE INCORRECT - Please provide a csv that reaches longer into the past";
                 System.out.println(error);
             }
         }
     }
 
+    private MoneySum getProfitLossSum(int year, CurrencyUnit unit) {
+        return mProfitLossMap.computeIfAbsent(year, k -> new MoneySum(unit));
+    }
+
+    public RealizedEvents getRealizedEvents() {
+        return mEvents;
+    }
+
     public BigMoney getProfitLoss(int year) {
-        BigMoney total = BigMoney.zero(currency);
-        return mProfitLossMap.get(year) == null ? total : total.plus(mProfitLossMap.get(year));
+        MoneySum total = new MoneySum(currency);
+        return mProfitLossMap.get(year) == null ? total.toBigMoney() : total.add(mProfitLossMap.get(year)).toBigMoney();
     }
 
     public BigMoney getProfitLoss() {
-        BigMoney total = BigMoney.zero(currency);
-        for (BigMoney m : mProfitLossMap.values()) {
-            total = total.plus(m);
+        MoneySum total = new MoneySum(currency);
+        for (MoneySum m : mProfitLossMap.values()) {
+            total.add(m);
         }
-        return total;
+        return total.toBigMoney();
     }
 
     /*
@@ -121,8 +156,8 @@ public class ProfitLossMapper {
         StringBuilder sb = new StringBuilder();
         if (mProfitLossMap.size() == 0)
             sb.append(" 0");
-        for (Map.Entry<Integer, BigMoney> pl : mProfitLossMap.entrySet()) {
-            sb.append(" ").append(pl.getKey()).append(": ").append(MoneyUtils.toString(pl.getValue()));
+        for (Map.Entry<Integer, MoneySum> pl : mProfitLossMap.entrySet()) {
+            sb.append(" ").append(pl.getKey()).append(": ").append(MoneyUtils.toString(pl.getValue().toBigMoney()));
         }
         return sb.toString();
     }
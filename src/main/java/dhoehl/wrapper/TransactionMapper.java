@@ -20,29 +20,73 @@ package dhoehl.wrapper;
 
 
 import dhoehl.model.Transaction;
+import dhoehl.model.TransactionStore;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.TreeMap;
 
+/*
+Transactions by year. Only the indices of the transactions in the store are kept, sorted per year.
+Transactions of another store are copied into the store first.
+ */
 public class TransactionMapper {
-    private final Map<Integer, Set<Transaction>> mTransactionMap = new HashMap<>();
+    private final TransactionStore mStore;
+    private final Map<Integer, IndexList> mTransactionMap = new TreeMap<>();
+    private int mLast = -1;
 
+    public TransactionMapper() {
+        this(new TransactionStore());
+    }
+
+    public TransactionMapper(TransactionStore store) {
+        mStore = store;
+    }
 
-    public boolean add(Transaction t) {
+    /*
+    Returns the transaction as kept by the mapper (in its store) or null if it is already known
+     */
+    public Transaction add(Transaction t) {
         int year = t.getTimestamp().getYear();
-        return mTransactionMap.computeIfAbsent(year, k -> new TreeSet<>()).add(t);
+        IndexList list = mTransactionMap.computeIfAbsent(year, k -> new IndexList());
+        int position = list.find(t);
+        //Already known
+        if (position < 0) return null;
+        boolean local = t.getStore() == mStore;
+        int index = local ? t.getIndex() : mStore.add(t);
+        list.insert(position, index);
+        if (mLast < 0 || mStore.compare(index, mStore, mLast) > 0) mLast = index;
+        return local ? t : mStore.get(index);
+    }
+
+    //Latest transaction or null if there is none
+    public Transaction getLast() {
+        return mLast < 0 ? null : mStore.get(mLast);
     }
 
     public Set<Transaction> getTransactions(int year) {
-        return mTransactionMap.get(year);
+        IndexList list = mTransactionMap.get(year);
+        //A copy, later inserts shift the indices of the list
+        return list == null ? null : mStore.view(Arrays.copyOf(list.indices, list.size), list.size);
+    }
+
+    //Without building a view, a year is only known once it has a transaction
+    public boolean hasTransactions(int year) {
+        return mTransactionMap.containsKey(year);
     }
 
     public Set<Transaction> getTransactions() {
-        final Set<Transaction> allTransactions = new TreeSet<>();
-        mTransactionMap.values().forEach(allTransactions::addAll);
-        return allTransactions;
+        //Years are in order, so are all transactions
+        int count = 0;
+        for (IndexList list : mTransactionMap.values()) count += list.size;
+        int[] all = new int[count];
+        count = 0;
+        for (IndexList list : mTransactionMap.values()) {
+            System.arraycopy(list.indices, 0, all, count, list.size);
+            count += list.size;
+        }
+        return mStore.view(all, count);
     }
 
     @Override
@@ -55,18 +99,62 @@ public class TransactionMapper {
     }
 
     public long getTradeCount(int year) {
-        return getTransactions(year).size();
+        return mTransactionMap.get(year).size;
     }
 
     public long getTradeCount() {
-        return getTransactions().size();
+        long count = 0;
+        for (IndexList list : mTransactionMap.values()) count += list.size;
+        return count;
     }
 
     public long getTradeCount(Transaction.Type type) {
-        return getTransactions().stream().filter(t -> t.getType() == type).count();
+        long count = 0;
+        for (IndexList list : mTransactionMap.values()) count += list.count(type);
+        return count;
     }
 
     public long getTradeCount(Transaction.Type type,int year) {
-         return getTransactions(year).stream().filter(t -> t.getType() == type).count();
+        return mTransactionMap.get(year).count(type);
+    }
+
+    private class IndexList {
+        private int[] indices = new int[8];
+        private int size;
+        //Trades per Transaction.Type, kept up to date on insert
+        private final long[] counts = new long[Transaction.Type.values().length];
+
+        /*
+        Position to insert the transaction at, -1 if an equal one is part of the list
+         */
+        int find(Transaction t) {
+            //Transactions mostly come in order, check the end first
+            if (size == 0) return 0;
+            int c = mStore.compare(indices[size - 1], t.getStore(), t.getIndex());
+            if (c < 0) return size;
+            if (c == 0) return -1;
+            int low = 0;
+            int high = size - 2;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                c = mStore.compare(indices[middle], t.getStore(), t.getIndex());
+                if (c < 0) low = middle + 1;
+                else if (c > 0) high = middle - 1;
+                else return -1;
+            }
+            return low;
+        }
+
+        void insert(int position, int index) {
+            if (size == indices.length) indices = Arrays.copyOf(indices, size * 2);
+            System.arraycopy(indices, position, indices, position + 1, size - position);
+            indices[position] = index;
+            size++;
+            counts[mStore.getType(index).ordinal()]++;
+        }
+
+        long count(Transaction.Type type) {
+            return counts[type.ordinal()];
+        }
     }
 }
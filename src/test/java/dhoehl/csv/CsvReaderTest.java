@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package dhoehl.csv;
+
+import dhoehl.model.Table;
+import dhoehl.utils.csvUtils.DegiroUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+The mapped reader has to give the same table as the sequential one, wherever the chunks of the file end.
+ */
+public class CsvReaderTest {
+    private static final String HEADER = "Date,Time,Product,ISIN,Exchange,Quantity,Price,,Local value,,Value,,Exchange rate,Fee,,Total,,Order ID\n";
+    private static final String CSV = HEADER
+            + "01-01-2020,10:00,\"MULTI\nLINE\",DE0000000001,XET,10,EUR,10.00,EUR,-100.00,EUR,-100.00,,EUR,-2.00,EUR,-102.00,11111111-1111-1111-1111-111111111111\n"
+            + "02-01-2020,10:00,\"CRLF\r\n\"\"QUOTED\"\", WITH, COMMAS\",DE0000000002,XET,5,EUR,20.00,EUR,-100.00,EUR,-100.00,,EUR,-2.00,EUR,-102.00,\n"
+            + "03-01-2020,10:00,\"\n\",DE0000000003,XET,-5,EUR,21.00,EUR,105.00,EUR,105.00,,EUR,-2.00,EUR,103.00,33333333-3333-3333-3333-333333333333\r\n"
+            + "04-01-2020,10:00,PLAIN,DE0000000004,XET,1,EUR,1.00,EUR,-1.00,EUR,-1.00,,,,EUR,-1.00,\n"
+            + "05-01-2020,10:00,\"ENDS WITH\n\",DE0000000005,XET,1,EUR,1.00,EUR,-1.00,EUR,-1.00,,,,EUR,-1.00,55555555-5555-5555-5555-555555555555";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void quotedLineBreaksStayInTheirField() throws IOException {
+        Table table = CsvReader.readDegiro(write(CSV));
+        assertEquals(5, table.getRows());
+        assertEquals("MULTI\nLINE", table.getCell(0, 2));
+        assertEquals("CRLF\r\n\"QUOTED\", WITH, COMMAS", table.getCell(1, 2));
+        assertEquals("\n", table.getCell(2, 2));
+        assertEquals("PLAIN", table.getCell(3, 2));
+        assertEquals("ENDS WITH\n", table.getCell(4, 2));
+        assertEquals("33333333-3333-3333-3333-333333333333", table.getCell(2, DegiroUtils.ID_COLUMN));
+    }
+
+    @Test
+    public void mappedChunksEndAtRowsOnly() throws IOException {
+        File file = write(CSV);
+        Table expected = CsvReader.readDegiro(file);
+        //Every size lets chunks end at other line breaks, most of them inside quoted fields
+        for (long chunkSize = 1; chunkSize <= file.length(); chunkSize++) {
+            assertSameTable("chunk size " + chunkSize, expected, CsvReader.readDegiroMapped(file, chunkSize));
+        }
+    }
+
+    @Test
+    public void mappedChunksOfALargeFile() throws IOException {
+        //Beyond the 64k of a single scan buffer
+        StringBuilder csv = new StringBuilder(HEADER);
+        for (int i = 0; i < 2000; i++) {
+            csv.append(CSV, HEADER.length(), CSV.length()).append('\n');
+        }
+        File file = write(csv.toString());
+        Table expected = CsvReader.readDegiro(file);
+        assertEquals(10000, expected.getRows());
+        for (long chunkSize : new long[]{1, 100, 4099, 65536, 300000}) {
+            assertSameTable("chunk size " + chunkSize, expected, CsvReader.readDegiroMapped(file, chunkSize));
+        }
+    }
+
+    private File write(String csv) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), csv.getBytes(Charset.defaultCharset()));
+        return file;
+    }
+
+    private static void assertSameTable(String message, Table expected, Table actual) {
+        assertEquals(message, expected.getRows(), actual.getRows());
+        assertEquals(message, expected.getColumns(), actual.getColumns());
+        for (int row = 0; row < expected.getRows(); row++) {
+            for (int column = 0; column < expected.getColumns(); column++) {
+                assertEquals(message + ", row " + row + ", column " + column, expected.getCell(row, column), actual.getCell(row, column));
+            }
+        }
+    }
+}
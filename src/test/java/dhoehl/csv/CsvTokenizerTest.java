@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package dhoehl.csv;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CsvTokenizerTest {
+
+    @Test
+    public void unquotedFields() throws IOException {
+        assertRows("a,b,c\n1,,3\n", row("a", "b", "c"), row("1", "", "3"));
+    }
+
+    @Test
+    public void quotedFields() throws IOException {
+        assertRows("\"a,b\",\"say \"\"hi\"\"\",\"\"\n", row("a,b", "say \"hi\"", ""));
+    }
+
+    @Test
+    public void lineBreaksInQuotedFields() throws IOException {
+        assertRows("\"multi\nline\",\"crlf\r\nend\",\"\n\"\r\nx,y,z", row("multi\nline", "crlf\r\nend", "\n"), row("x", "y", "z"));
+    }
+
+    @Test
+    public void rowEndsAndEmptyLines() throws IOException {
+        //\n, \r\n and \r end a row, empty lines are skipped, a trailing separator ends an empty last field
+        assertRows("a,b\r\n\r\nc,\rd\n\n", row("a", "b"), row("c", ""), row("d"));
+    }
+
+    @Test
+    public void lenientQuotes() throws IOException {
+        //Quotes within an unquoted field and text after a closing quote are kept
+        assertRows("ab\"c,\"d\"e,\"open", row("ab\"c", "de", "open"));
+    }
+
+    @Test
+    public void fieldsAcrossBufferBoundaries() throws IOException {
+        String csv = "01-01-2020,\"MULTI\nLINE\",\"a \"\"quoted\"\" word\",plain,,\"\"\r\n"
+                + "02-01-2020,\"\r\n\",last\n";
+        List<List<String>> expected = tokenize(new StringReader(csv));
+        assertEquals(2, expected.size());
+        //Every split of the input between reads has to give the same rows
+        for (int length = 1; length < csv.length(); length++) {
+            assertEquals("reads of " + length, expected, tokenize(new ChoppedReader(csv, length)));
+        }
+    }
+
+    @Test
+    public void charBufferWithoutArray() {
+        String csv = "a,\"b\nc\"\nd,e\n";
+        List<List<String>> rows = new ArrayList<>();
+        new CsvTokenizer(new Collector(rows)).tokenize(CharBuffer.wrap(csv));
+        assertEquals(Arrays.asList(row("a", "b\nc"), row("d", "e")), rows);
+    }
+
+    private static void assertRows(String csv, List<?>... expected) throws IOException {
+        assertEquals(Arrays.asList(expected), tokenize(new StringReader(csv)));
+        List<List<String>> rows = new ArrayList<>();
+        new CsvTokenizer(new Collector(rows)).tokenize(CharBuffer.wrap(csv.toCharArray()));
+        assertEquals(Arrays.asList(expected), rows);
+    }
+
+    private static List<List<String>> tokenize(Reader reader) throws IOException {
+        List<List<String>> rows = new ArrayList<>();
+        new CsvTokenizer(new Collector(rows)).tokenize(reader);
+        return rows;
+    }
+
+    private static List<String> row(String... fields) {
+        return Arrays.asList(fields);
+    }
+
+    private static class Collector implements CsvTokenizer.FieldHandler {
+        private final List<List<String>> rows;
+        private List<String> row = new ArrayList<>();
+
+        Collector(List<List<String>> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public void onField(int column, char[] buffer, int start, int end) {
+            assertEquals(row.size(), column);
+            row.add(new String(buffer, start, end - start));
+        }
+
+        @Override
+        public void onRowEnd(int row, int columns) {
+            assertEquals(rows.size(), row);
+            assertEquals(this.row.size(), columns);
+            rows.add(this.row);
+            this.row = new ArrayList<>();
+        }
+    }
+
+    //Hands out at most the given number of chars per read
+    private static class ChoppedReader extends StringReader {
+        private final int length;
+
+        ChoppedReader(String s, int length) {
+            super(s);
+            this.length = length;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, this.length));
+        }
+    }
+}
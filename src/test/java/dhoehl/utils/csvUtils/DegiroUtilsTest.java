@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package dhoehl.utils.csvUtils;
+
+import dhoehl.csv.CsvReader;
+import dhoehl.degiro.Depot;
+import dhoehl.model.Table;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+Rows without an order id get one from their content, so the same row gets the same id on every import and
+importing an export again adds nothing to a depot.
+ */
+public class DegiroUtilsTest {
+    private static final String HEADER = "Date,Time,Product,ISIN,Exchange,Quantity,Price,,Local value,,Value,,Exchange rate,Fee,,Total,,Order ID\n";
+    private static final String BUY = "01-01-2020,10:00,PRODUCT,DE0000000001,XET,10,EUR,10.00,EUR,-100.00,EUR,-100.00,,EUR,-2.00,EUR,-102.00,11111111-1111-1111-1111-111111111111\n";
+    //Without an id, e.g. a split or a spin off
+    private static final String SPLIT = "02-01-2020,00:00,PRODUCT,DE0000000001,XET,10,EUR,0.00,EUR,0.00,EUR,0.00,,,,EUR,0.00,\n";
+    private static final String SELL = "03-01-2020,10:00,PRODUCT,DE0000000001,XET,-5,EUR,12.00,EUR,60.00,EUR,60.00,,,,EUR,60.00,\n";
+    private static final String LATER = "04-01-2020,10:00,PRODUCT,DE0000000001,XET,-5,EUR,13.00,EUR,65.00,EUR,65.00,,,,EUR,65.00,\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rowsWithAnIdKeepIt() throws IOException {
+        Table table = read(BUY + SELL);
+        assertEquals("11111111-1111-1111-1111-111111111111", id(table, 0));
+        assertTrue(id(table, 1).matches("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}"));
+    }
+
+    @Test
+    public void sameRowGetsTheSameIdOnEveryImport() throws IOException {
+        Table first = read(BUY + SPLIT + SELL);
+        Table again = read(BUY + SPLIT + SELL);
+        //A later export with more rows before and behind the known ones
+        Table later = read(LATER + BUY + SPLIT + SELL + LATER.replace("13.00", "14.00"));
+        assertEquals(id(first, 1), id(again, 1));
+        assertEquals(id(first, 2), id(again, 2));
+        assertEquals(id(first, 1), id(later, 2));
+        assertEquals(id(first, 2), id(later, 3));
+        assertNotEquals(id(first, 1), id(first, 2));
+    }
+
+    @Test
+    public void idDependsOnEveryCell() throws IOException {
+        //Each row in a file of its own, so none of them is a duplicate of another
+        Set<String> ids = new HashSet<>();
+        ids.add(id(read(SELL), 0));
+        ids.add(id(read(SELL.replace("12.00", "12.01")), 0));
+        //The same characters in other cells are another row
+        ids.add(id(read(SELL.replace("PRODUCT,DE", "PRODUC,TDE")), 0));
+        assertEquals(3, ids.size());
+    }
+
+    @Test
+    public void duplicateRowsGetDistinctStableIds() throws IOException {
+        Table first = read(BUY + SELL + SELL + SELL);
+        Table later = read(LATER + BUY + SELL + SELL + SELL + LATER);
+        Set<String> ids = new HashSet<>();
+        for (int row = 1; row <= 3; row++) {
+            ids.add(id(first, row));
+            assertEquals(id(first, row), id(later, row + 1));
+        }
+        assertEquals(3, ids.size());
+        //The same id for the same row and the same occurrence, wherever it is in the file
+        assertEquals(id(first, 1), id(read(SELL), 0));
+    }
+
+    @Test
+    public void reimportAddsNothing() throws IOException {
+        File export = write(BUY + SPLIT + SELL + SELL);
+        Depot depot = new Depot(export);
+        assertEquals(4, depot.getTransactions().size());
+        depot.addTransactions(export);
+        assertEquals(4, depot.getTransactions().size());
+    }
+
+    @Test
+    public void reimportAddsOnlyNewRows() throws IOException {
+        Depot depot = new Depot(write(BUY + SPLIT + SELL + SELL));
+        //A third identical sell is a new one, the first two are known
+        depot.addTransactions(write(BUY + SPLIT + SELL + SELL + SELL + LATER));
+        assertEquals(6, depot.getTransactions().size());
+        assertEquals(0, depot.getParsingErrorCount());
+    }
+
+    private Table read(String rows) throws IOException {
+        return CsvReader.readDegiro(write(rows));
+    }
+
+    private File write(String rows) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), (HEADER + rows).getBytes(Charset.defaultCharset()));
+        return file;
+    }
+
+    private static String id(Table table, int row) {
+        return table.getCell(row, DegiroUtils.ID_COLUMN);
+    }
+}
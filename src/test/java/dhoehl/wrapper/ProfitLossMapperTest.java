@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2020.  Dennis Hoehl
+ * This file is part of DG report generator <https://github.com/dhoehl/dg-report-generator>.
+ *
+ * DG report generator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * DG report generator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DG report generator.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package dhoehl.wrapper;
+
+import dhoehl.model.CostBasis;
+import dhoehl.model.RealizedEvents;
+import dhoehl.model.Transaction;
+import dhoehl.model.TransactionStore;
+import org.joda.money.BigMoney;
+import org.joda.money.CurrencyUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+Matching of sells against the open buys for every cost basis. All of them get the same three buys
+(10 pcs. at 10.00, 15.00 and 12.00 EUR), a partial sell of 4 pcs. in 2020 and a sell of 12 pcs. in 2021 that spans two lots
+(one lot for average cost).
+ */
+public class ProfitLossMapperTest {
+    private static final CurrencyUnit EUR = CurrencyUnit.EUR;
+    private static final CurrencyUnit USD = CurrencyUnit.USD;
+
+    private TransactionStore store;
+    private int ids;
+
+    @Before
+    public void setUp() {
+        store = new TransactionStore();
+        ids = 0;
+    }
+
+    @Test
+    public void fifoSellsTheOldestLotFirst() {
+        ProfitLossMapper mapper = mapper(CostBasis.FIFO);
+        RealizedEvents events = mapper.getRealizedEvents();
+        assertEquals(3, events.size());
+        assertEvent(events.get(0), 1, "4", "-40.00", "80.00");
+        assertEvent(events.get(1), 1, "6", "-60.00", "108.00");
+        assertEvent(events.get(2), 2, "6", "-90.00", "108.00");
+        assertMoney("40.00", mapper.getProfitLoss(2020));
+        assertMoney("66.00", mapper.getProfitLoss(2021));
+        assertMoney("106.00", mapper.getProfitLoss());
+        assertFalse(mapper.hasError());
+    }
+
+    @Test
+    public void lifoSellsTheNewestLotFirst() {
+        ProfitLossMapper mapper = mapper(CostBasis.LIFO);
+        RealizedEvents events = mapper.getRealizedEvents();
+        assertEquals(3, events.size());
+        assertEvent(events.get(0), 3, "4", "-48.00", "80.00");
+        assertEvent(events.get(1), 3, "6", "-72.00", "108.00");
+        assertEvent(events.get(2), 2, "6", "-90.00", "108.00");
+        assertMoney("32.00", mapper.getProfitLoss(2020));
+        assertMoney("54.00", mapper.getProfitLoss(2021));
+        assertMoney("86.00", mapper.getProfitLoss());
+        assertFalse(mapper.hasError());
+    }
+
+    @Test
+    public void hifoSellsTheMostExpensiveLotFirst() {
+        ProfitLossMapper mapper = mapper(CostBasis.HIFO);
+        RealizedEvents events = mapper.getRealizedEvents();
+        assertEquals(3, events.size());
+        //The partly sold lot keeps its place, its cost per piece does not change
+        assertEvent(events.get(0), 2, "4", "-60.00", "80.00");
+        assertEvent(events.get(1), 2, "6", "-90.00", "108.00");
+        assertEvent(events.get(2), 3, "6", "-72.00", "108.00");
+        assertMoney("20.00", mapper.getProfitLoss(2020));
+        assertMoney("54.00", mapper.getProfitLoss(2021));
+        assertMoney("74.00", mapper.getProfitLoss());
+        assertFalse(mapper.hasError());
+    }
+
+    @Test
+    public void averageSellsFromOnePooledLot() {
+        ProfitLossMapper mapper = mapper(CostBasis.AVERAGE);
+        RealizedEvents events = mapper.getRealizedEvents();
+        assertEquals(2, events.size());
+        //30 pcs. for 370.00, 4 of them cost 49.33, the remaining 26 cost 320.67
+        assertEvent(events.get(0), 1, "4", "-49.33", "80.00");
+        //12 of the remaining 26 pcs. cost 148.0015, rounded to 148.00
+        assertEvent(events.get(1), 1, "12", "-148.00", "216.00");
+        assertMoney("30.67", mapper.getProfitLoss(2020));
+        assertMoney("68.00", mapper.getProfitLoss(2021));
+        assertMoney("98.67", mapper.getProfitLoss());
+        assertFalse(mapper.hasError());
+    }
+
+    @Test
+    public void sellOfExactlyOneLotRemovesIt() {
+        for (CostBasis costBasis : CostBasis.values()) {
+            setUp();
+            ProfitLossMapper mapper = new ProfitLossMapper(EUR, costBasis, store);
+            mapper.add(trade(2020, 1, "10", "10.00", "-100.00"));
+            mapper.add(trade(2020, 2, "-10", "11.00", "110.00"));
+            mapper.add(trade(2020, 3, "5", "20.00", "-100.00"));
+            mapper.add(trade(2020, 4, "-5", "21.00", "105.00"));
+            RealizedEvents events = mapper.getRealizedEvents();
+            assertEquals(costBasis.name(), 2, events.size());
+            assertEvent(events.get(0), 1, "10", "-100.00", "110.00");
+            assertEvent(events.get(1), 3, "5", "-100.00", "105.00");
+            assertMoney("15.00", mapper.getProfitLoss(2020));
+            assertFalse(costBasis.name(), mapper.hasError());
+        }
+    }
+
+    @Test
+    public void sellBeyondTheOpenBuysIsAnError() {
+        for (CostBasis costBasis : CostBasis.values()) {
+            setUp();
+            ProfitLossMapper mapper = new ProfitLossMapper(EUR, costBasis, store);
+            mapper.add(trade(2020, 1, "10", "10.00", "-100.00"));
+            mapper.add(trade(2020, 2, "-15", "12.00", "180.00"));
+            RealizedEvents events = mapper.getRealizedEvents();
+            assertEquals(costBasis.name(), 1, events.size());
+            assertEvent(events.get(0), 1, "10", "-100.00", "120.00");
+            assertTrue(costBasis.name(), mapper.hasError());
+        }
+    }
+
+    @Test
+    public void partsOfASellAreConvertedByTheRateOfTheSell() {
+        //Prices in USD, amounts in EUR at a rate of 2 USD per EUR
+        ProfitLossMapper mapper = new ProfitLossMapper(EUR, CostBasis.FIFO, store);
+        mapper.add(store.get(store.add(id(), time(2020, 1), "Product", "US0000000001", "NDQ", new BigDecimal("10"),
+                money(USD, "20.00"), money(EUR, "-100.00"), money(USD, "-200.00"), new BigDecimal("2.0000"), null, money(EUR, "-100.00"))));
+        mapper.add(store.get(store.add(id(), time(2020, 2), "Product", "US0000000001", "NDQ", new BigDecimal("10"),
+                money(USD, "30.00"), money(EUR, "-150.00"), money(USD, "-300.00"), new BigDecimal("2.0000"), null, money(EUR, "-150.00"))));
+        mapper.add(store.get(store.add(id(), time(2020, 3), "Product", "US0000000001", "NDQ", new BigDecimal("-15"),
+                money(USD, "40.00"), money(EUR, "300.00"), money(USD, "600.00"), new BigDecimal("2.0000"), null, money(EUR, "300.00"))));
+        RealizedEvents events = mapper.getRealizedEvents();
+        assertEquals(2, events.size());
+        assertEvent(events.get(0), 1, "10", "-100.00", "200.00");
+        //The last part gets what is left of the proceeds, the cost of the part is valued at price and rate of the buy
+        assertEvent(events.get(1), 2, "5", "-75.00", "100.00");
+        assertMoney("125.00", mapper.getProfitLoss(2020));
+    }
+
+    //Three buys, then a partial sell and a sell over two lots
+    private ProfitLossMapper mapper(CostBasis costBasis) {
+        ProfitLossMapper mapper = new ProfitLossMapper(EUR, costBasis, store);
+        mapper.add(trade(2020, 1, "10", "10.00", "-100.00"));
+        mapper.add(trade(2020, 2, "10", "15.00", "-150.00"));
+        mapper.add(trade(2020, 3, "10", "12.00", "-120.00"));
+        mapper.add(trade(2020, 4, "-4", "20.00", "80.00"));
+        mapper.add(trade(2021, 5, "-12", "18.00", "216.00"));
+        return mapper;
+    }
+
+    //Quantity and amount are negative for a sell
+    private Transaction trade(int year, int month, String quantity, String price, String amount) {
+        BigMoney total = money(EUR, amount);
+        return store.get(store.add(id(), time(year, month), "Product", "DE0000000001", "XET", new BigDecimal(quantity),
+                money(EUR, price), total, total, BigDecimal.ONE, null, total));
+    }
+
+    private String id() {
+        return "id-" + (++ids);
+    }
+
+    private static LocalDateTime time(int year, int month) {
+        return LocalDateTime.of(year, month, 1, 10, 0);
+    }
+
+    private static BigMoney money(CurrencyUnit currency, String amount) {
+        return BigMoney.of(currency, new BigDecimal(amount));
+    }
+
+    //The buy is given by the number of the transaction, counted from 1 in the order they were added
+    private static void assertEvent(RealizedEvents.Event event, int buy, String quantity, String cost, String proceeds) {
+        assertEquals("id-" + buy, event.getBuy().getId());
+        assertEquals(0, new BigDecimal(quantity).compareTo(event.getQuantity()));
+        assertMoney(cost, event.getCost());
+        assertMoney(proceeds, event.getProceeds());
+    }
+
+    //Amounts compare by value, the scale of the result depends on the rates involved
+    private static void assertMoney(String expected, BigMoney actual) {
+        assertEquals(EUR, actual.getCurrencyUnit());
+        assertEquals(expected + " != " + actual, 0, new BigDecimal(expected).compareTo(actual.getAmount()));
+    }
+}